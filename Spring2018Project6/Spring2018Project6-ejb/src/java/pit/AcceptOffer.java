@@ -12,5 +12,9 @@ public class AcceptOffer implements Serializable {
     public int sourcePlayer;
     
     // The commodity being returned as payment.
-    public String tradeCard;    
+    public String tradeCard;
+
+    // A hint of how congested the accepting Player is: the smoothed time, in ms,
+    // that messages currently wait in its Queue.  Used for flow control.
+    public int backlog;
 }
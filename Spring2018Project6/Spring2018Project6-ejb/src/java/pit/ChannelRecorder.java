@@ -0,0 +1,105 @@
+package pit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Counts the cards a Player records on its incoming channels while a snapshot
+ * is in progress: counts[p][c] is how many cards of commodity c arrived from
+ * Player p after we recorded our state and before p's Marker.  That is all
+ * the report needs, and it takes at most numPlayers * commodities ints
+ * however many messages arrive, so a slow Marker under heavy trading does
+ * not fill the heap.  A channel's row is made when something is first
+ * recorded on it, and rows are kept (zeroed) from one snapshot to the next.
+ */
+class ChannelRecorder {
+
+    // Commodities are numbered in the order they are first recorded
+    private final ArrayList<String> commodities = new ArrayList<String>();
+    private final HashMap<String, Integer> commodityNumbers = new HashMap<String, Integer>();
+
+    private int[][] counts = new int[0][];
+    // recordedFrom[p] counts the messages recorded on the channel from Player p
+    private int[] recordedFrom = new int[0];
+    private long size = 0;
+
+    // Start recording for a snapshot with numPlayers channels
+    void start(int numPlayers) {
+        release();
+        if (counts.length != numPlayers) {
+            counts = new int[numPlayers][];
+            recordedFrom = new int[numPlayers];
+        }
+    }
+
+    void record(int source, String card) {
+        Integer number = commodityNumbers.get(card);
+        if (number == null) {
+            number = commodities.size();
+            commodities.add(card);
+            commodityNumbers.put(card, number);
+        }
+        int[] row = counts[source];
+        if (row == null || number >= row.length) {
+            int length = Math.max(commodities.size(), (row == null) ? 4 : row.length * 2);
+            row = (row == null) ? new int[length] : Arrays.copyOf(row, length);
+            counts[source] = row;
+        }
+        row[number]++;
+        recordedFrom[source]++;
+        size++;
+    }
+
+    int recordedFrom(int source) {
+        return recordedFrom[source];
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Add one to state for every recorded card
+    void addTo(HashMap<String, Integer> state) {
+        int[] totals = new int[commodities.size()];
+        for (int[] row : counts) {
+            if (row != null) {
+                // A row may be longer than the commodities recorded so far
+                for (int number = 0; number < Math.min(row.length, totals.length); number++) {
+                    totals[number] += row[number];
+                }
+            }
+        }
+        for (int number = 0; number < totals.length; number++) {
+            if (totals[number] > 0) {
+                String commodity = commodities.get(number);
+                Integer count = state.get(commodity);
+                state.put(commodity, ((count == null) ? 0 : count) + totals[number]);
+            }
+        }
+    }
+
+    // A one line summary of the memory used, for the console
+    String usage() {
+        int rows = 0;
+        long bytes = 0;
+        for (int[] row : counts) {
+            if (row != null) {
+                rows++;
+                bytes += 4L * row.length;
+            }
+        }
+        return size + " messages recorded, counted in " + rows + " channels, " + bytes + " bytes";
+    }
+
+    // Forget everything recorded, keeping the rows for the next snapshot
+    void release() {
+        for (int[] row : counts) {
+            if (row != null) {
+                Arrays.fill(row, 0);
+            }
+        }
+        Arrays.fill(recordedFrom, 0);
+        size = 0;
+    }
+}
@@ -0,0 +1,112 @@
+package pit;
+
+import java.util.Random;
+
+/*
+ * Deals the Players' hands as count vectors: deal() returns counts, where
+ * counts[p][c] is how many cards of commodity c Player p gets.  Every Player
+ * gets handSize cards; which commodities they are depends on distribution:
+ *  - single:  Player p gets only commodity p (as PIT has always been dealt);
+ *  - uniform: each card is any commodity, all equally likely;
+ *  - zipf:    commodity c is 1/(c+1)^skew as likely as commodity 0;
+ *  - hot:     hotPercent of the cards are one of the first hotCommodities,
+ *             the rest any of the others.
+ * The same seed deals the same hands.  It is public because PITsnapshot,
+ * in the war, deals with it too.
+ */
+public class HandDealer {
+    public static final String SINGLE = "single";
+    public static final String UNIFORM = "uniform";
+    public static final String ZIPF = "zipf";
+    public static final String HOT = "hot";
+
+    public String distribution = SINGLE;
+    public double skew = 1.0;
+    public int hotCommodities = 1;
+    public int hotPercent = 80;
+    public long seed = System.currentTimeMillis();
+
+    public int[][] deal(int numPlayers, int numCommodities, int handSize) {
+        int[][] counts = new int[numPlayers][numCommodities];
+        if (numCommodities == 0) {
+            return counts;
+        }
+        if (distribution.equals(SINGLE)) {
+            for (int player = 0; player < numPlayers; player++) {
+                counts[player][player % numCommodities] = handSize;
+            }
+            return counts;
+        }
+        // Pick each card's commodity from the cumulative weights
+        double[] cumulative = cumulative(weights(numCommodities));
+        double total = cumulative[numCommodities - 1];
+        Random random = new Random(seed);
+        for (int player = 0; player < numPlayers; player++) {
+            for (int card = 0; card < handSize; card++) {
+                counts[player][pick(cumulative, random.nextDouble() * total)]++;
+            }
+        }
+        return counts;
+    }
+
+    // How many of each commodity the hands hold between them
+    public static int[] totals(int[][] counts) {
+        int[] totals = new int[(counts.length == 0) ? 0 : counts[0].length];
+        for (int[] hand : counts) {
+            for (int c = 0; c < hand.length; c++) {
+                totals[c] += hand[c];
+            }
+        }
+        return totals;
+    }
+
+    private double[] weights(int numCommodities) {
+        double[] weights = new double[numCommodities];
+        if (distribution.equals(UNIFORM)) {
+            for (int c = 0; c < numCommodities; c++) {
+                weights[c] = 1;
+            }
+        } else if (distribution.equals(ZIPF)) {
+            for (int c = 0; c < numCommodities; c++) {
+                weights[c] = 1 / Math.pow(c + 1, skew);
+            }
+        } else if (distribution.equals(HOT)) {
+            int hot = Math.max(1, Math.min(hotCommodities, numCommodities));
+            for (int c = 0; c < numCommodities; c++) {
+                if (hot == numCommodities) {
+                    weights[c] = 1;
+                } else {
+                    weights[c] = (c < hot) ? hotPercent / (double) hot : (100 - hotPercent) / (double) (numCommodities - hot);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown hand distribution: " + distribution);
+        }
+        return weights;
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int c = 0; c < weights.length; c++) {
+            sum += weights[c];
+            cumulative[c] = sum;
+        }
+        return cumulative;
+    }
+
+    // The first commodity whose cumulative weight is above r
+    private static int pick(double[] cumulative, double r) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] > r) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,287 @@
+package pit;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * An in-process stand-in for the JMS provider, for driving many
+ * PITPlayerModels in one JVM (see PITBenchmark).  Each Player has a mailbox
+ * that is drained by one of a fixed set of worker threads (Player p always
+ * runs on worker p % threads), so a Player handles its messages in order
+ * just as a PITplayer MDB would.  Messages to the PITsnapshot and PITmonitor
+ * Queues are kept for the caller to receive().  Messages sent later are
+ * posted by a timer thread when their delay is up.
+ *
+ * Trades do not allocate: a mailbox is a ring of parallel arrays, the fields
+ * of a TenderOffer, AcceptOffer or RejectOffer are copied in when it is sent
+ * (so the sender may reuse it), and copied back out into the mailbox's own
+ * message objects when delivered.  Other messages are passed by reference,
+ * so senders must not change them after sending.
+ */
+class InMemoryBroker implements PITTransport {
+
+    // Message kinds held in a mailbox slot
+    private static final int OTHER = 0;
+    private static final int TENDER = 1;
+    private static final int ACCEPT = 2;
+    private static final int REJECT = 3;
+    // Messages a worker delivers from one mailbox before moving to the next
+    private static final int BATCH = 64;
+
+    private final Mailbox[] players;
+    private final HashMap<String, Mailbox> playerQueues = new HashMap<String, Mailbox>();
+    private final HashMap<String, LinkedBlockingQueue<Object>> monitorQueues = new HashMap<String, LinkedBlockingQueue<Object>>();
+    private final Worker[] workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    // Messages delivered to Players
+    final AtomicLong delivered = new AtomicLong();
+
+    InMemoryBroker(int numPlayers, int threads) {
+        workers = new Worker[threads];
+        for (int w = 0; w < threads; w++) {
+            workers[w] = new Worker(w);
+        }
+        players = new Mailbox[numPlayers];
+        for (int player = 0; player < numPlayers; player++) {
+            players[player] = new Mailbox(new PITPlayerModel(player, this), workers[player % threads]);
+            playerQueues.put("jms/PITplayer" + player, players[player]);
+        }
+        monitorQueues.put("jms/PITsnapshot", new LinkedBlockingQueue<Object>());
+        monitorQueues.put("jms/PITmonitor", new LinkedBlockingQueue<Object>());
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public Endpoint endpoint(String queueJNDI) {
+        Mailbox mailbox = playerQueues.get(queueJNDI);
+        if (mailbox != null) {
+            return mailbox;
+        }
+        final LinkedBlockingQueue<Object> queue = monitorQueues.get(queueJNDI);
+        if (queue == null) {
+            throw new IllegalArgumentException("No such Queue: " + queueJNDI);
+        }
+        return new Endpoint() {
+            @Override
+            public void send(Serializable message) {
+                queue.add(message);
+            }
+        };
+    }
+
+    @Override
+    public void sendLater(final String queueJNDI, final Serializable message, long delay) {
+        final Endpoint endpoint = endpoint(queueJNDI);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    endpoint.send(message);
+                } catch (Exception e) {
+                    System.out.println("InMemoryBroker could not send to " + queueJNDI + ": " + e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Send straight to a Player, without looking up its Queue name
+    void sendToPlayer(int player, Serializable message) {
+        players[player].send(message);
+    }
+
+    // The next object sent to a monitor Queue, waiting up to timeout ms
+    Object receive(String queueJNDI, long timeout) throws InterruptedException {
+        return monitorQueues.get(queueJNDI).poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // The worker threads, so callers can measure what they allocate
+    Thread[] workerThreads() {
+        return workers.clone();
+    }
+
+    void shutdown() throws InterruptedException {
+        timer.shutdownNow();
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+        for (Worker worker : workers) {
+            worker.join(10000);
+        }
+    }
+
+    private class Mailbox implements Endpoint {
+        private final PITPlayerModel model;
+        private final Worker worker;
+        // The ring: count messages starting at head, each spread over the arrays
+        private int[] kinds = new int[64];
+        private int[] sources = new int[64];
+        private String[] cards = new String[64];
+        private int[] backlogs = new int[64];
+        private long[] sentAts = new long[64];
+        private Object[] others = new Object[64];
+        private int head;
+        private int count;
+        private boolean scheduled;
+        // Delivered to the model in place of the trade that was sent
+        private final TenderOffer tender = new TenderOffer();
+        private final AcceptOffer accept = new AcceptOffer();
+        private final RejectOffer reject = new RejectOffer();
+
+        Mailbox(PITPlayerModel model, Worker worker) {
+            this.model = model;
+            this.worker = worker;
+        }
+
+        @Override
+        public void send(Serializable message) {
+            boolean wake;
+            synchronized (this) {
+                if (count == kinds.length) {
+                    grow();
+                }
+                int slot = (head + count) % kinds.length;
+                if (message instanceof TenderOffer) {
+                    TenderOffer trade = (TenderOffer) message;
+                    kinds[slot] = TENDER;
+                    sources[slot] = trade.sourcePlayer;
+                    cards[slot] = trade.tradeCard;
+                } else if (message instanceof AcceptOffer) {
+                    AcceptOffer trade = (AcceptOffer) message;
+                    kinds[slot] = ACCEPT;
+                    sources[slot] = trade.sourcePlayer;
+                    cards[slot] = trade.tradeCard;
+                    backlogs[slot] = trade.backlog;
+                } else if (message instanceof RejectOffer) {
+                    RejectOffer trade = (RejectOffer) message;
+                    kinds[slot] = REJECT;
+                    sources[slot] = trade.sourcePlayer;
+                    cards[slot] = trade.tradeCard;
+                    backlogs[slot] = trade.backlog;
+                } else {
+                    kinds[slot] = OTHER;
+                    others[slot] = message;
+                }
+                sentAts[slot] = System.currentTimeMillis();
+                count++;
+                wake = !scheduled;
+                scheduled = true;
+            }
+            if (wake) {
+                worker.ready(this);
+            }
+        }
+
+        // Deliver up to BATCH messages; true if more are waiting
+        boolean deliver() {
+            for (int n = 0; n < BATCH; n++) {
+                Object message;
+                long sentAt;
+                synchronized (this) {
+                    if (count == 0) {
+                        scheduled = false;
+                        return false;
+                    }
+                    sentAt = sentAts[head];
+                    switch (kinds[head]) {
+                        case TENDER:
+                            tender.sourcePlayer = sources[head];
+                            tender.tradeCard = cards[head];
+                            message = tender;
+                            break;
+                        case ACCEPT:
+                            accept.sourcePlayer = sources[head];
+                            accept.tradeCard = cards[head];
+                            accept.backlog = backlogs[head];
+                            message = accept;
+                            break;
+                        case REJECT:
+                            reject.sourcePlayer = sources[head];
+                            reject.tradeCard = cards[head];
+                            reject.backlog = backlogs[head];
+                            message = reject;
+                            break;
+                        default:
+                            message = others[head];
+                            others[head] = null;
+                    }
+                    cards[head] = null;
+                    head = (head + 1) % kinds.length;
+                    count--;
+                }
+                model.onObject(message, sentAt);
+                delivered.incrementAndGet();
+            }
+            return true;
+        }
+
+        // Double the ring, unwrapping it so head is back at 0
+        private void grow() {
+            int size = kinds.length;
+            int[] newKinds = new int[size * 2];
+            int[] newSources = new int[size * 2];
+            String[] newCards = new String[size * 2];
+            int[] newBacklogs = new int[size * 2];
+            long[] newSentAts = new long[size * 2];
+            Object[] newOthers = new Object[size * 2];
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % size;
+                newKinds[i] = kinds[slot];
+                newSources[i] = sources[slot];
+                newCards[i] = cards[slot];
+                newBacklogs[i] = backlogs[slot];
+                newSentAts[i] = sentAts[slot];
+                newOthers[i] = others[slot];
+            }
+            kinds = newKinds;
+            sources = newSources;
+            cards = newCards;
+            backlogs = newBacklogs;
+            sentAts = newSentAts;
+            others = newOthers;
+            head = 0;
+        }
+    }
+
+    // Delivers the mailboxes made ready on it, in turn
+    private static class Worker extends Thread {
+        private final ArrayDeque<Mailbox> ready = new ArrayDeque<Mailbox>();
+
+        Worker(int number) {
+            super("InMemoryBroker-" + number);
+            setDaemon(true);
+        }
+
+        synchronized void ready(Mailbox mailbox) {
+            ready.add(mailbox);
+            notify();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Mailbox mailbox;
+                    synchronized (this) {
+                        while (ready.isEmpty()) {
+                            wait();
+                        }
+                        mailbox = ready.poll();
+                    }
+                    if (mailbox.deliver()) {
+                        ready(mailbox);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package pit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import javax.jms.*;
+import javax.naming.*;
+
+/*
+ * Sends PITPlayerModel messages through the application server's JMS Queues.
+ * One Connection and Session are opened on first use and kept, and each
+ * Endpoint keeps its MessageProducer and an ObjectMessage that is refilled
+ * for every send (the object is serialized into it by setObject).
+ * sendLater() uses the JMS 2.0 delivery delay, so no thread waits.
+ *
+ * If a send fails, the Connection is closed and forgotten, and every
+ * Endpoint opens a new MessageProducer on its next send.  The Endpoints
+ * themselves stay valid, so callers may keep them.
+ */
+class JmsTransport implements PITTransport {
+    private Context ctxt;
+    private Connection con;
+    private Session session;
+    // Counts the Connections dropped, so an Endpoint can tell its producer is stale
+    private int generation = 0;
+    private final HashMap<String, JmsEndpoint> endpoints = new HashMap<String, JmsEndpoint>();
+
+    @Override
+    public Endpoint endpoint(String queueJNDI) throws Exception {
+        JmsEndpoint endpoint = endpoints.get(queueJNDI);
+        if (endpoint == null) {
+            endpoint = new JmsEndpoint(queueJNDI);
+            endpoints.put(queueJNDI, endpoint);
+        }
+        return endpoint;
+    }
+
+    @Override
+    public void sendLater(String queueJNDI, Serializable message, long delay) throws Exception {
+        ((JmsEndpoint) endpoint(queueJNDI)).sendLater(message, delay);
+    }
+
+    private Session session() throws Exception {
+        if (session == null) {
+            // Gather necessary JMS resources
+            ctxt = new InitialContext();
+            con = ((ConnectionFactory) ctxt.lookup("jms/myConnectionFactory")).createConnection();
+            session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+        return session;
+    }
+
+    // Forget the Connection after a failure; the next send opens a new one
+    private void drop() {
+        generation++;
+        if (con != null) {
+            try {
+                con.close();
+            } catch (JMSException e) {
+                // already broken
+            }
+        }
+        con = null;
+        session = null;
+        ctxt = null;
+    }
+
+    private class JmsEndpoint implements Endpoint {
+        private final String queueJNDI;
+        private MessageProducer writer;
+        private ObjectMessage msg;
+        // The generation writer and msg were made in; -1 until the first send
+        private int openedIn = -1;
+
+        JmsEndpoint(String queueJNDI) {
+            this.queueJNDI = queueJNDI;
+        }
+
+        @Override
+        public void send(Serializable message) throws Exception {
+            try {
+                open();
+                msg.setObject(message);
+                // Send the object to the Queue
+                writer.send(msg);
+            } catch (JMSException e) {
+                throw failed(e);
+            }
+        }
+
+        // A failed send drops the producer too, so the delay need not be put back
+        void sendLater(Serializable message, long delay) throws Exception {
+            try {
+                open();
+                msg.setObject(message);
+                writer.setDeliveryDelay(delay);
+                writer.send(msg);
+                writer.setDeliveryDelay(0);
+            } catch (JMSException e) {
+                throw failed(e);
+            }
+        }
+
+        private JMSException failed(JMSException e) {
+            System.out.println("JmsTransport dropping its Connection after failing to send to " + queueJNDI + ": " + e);
+            drop();
+            return e;
+        }
+
+        private void open() throws Exception {
+            if (openedIn != generation) {
+                Session current = session();
+                writer = current.createProducer((Queue) ctxt.lookup(queueJNDI));
+                msg = current.createObjectMessage();
+                openedIn = generation;
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package pit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A lightweight stand-in for the JMS provider, so that Players can be spread
+ * over several PlayerHost JVMs on one machine.  It listens on loopback only.
+ * Each Queue has at most one subscriber (the latest); messages sent before
+ * anyone subscribes are held until someone does.  Messages from one sender
+ * to one Queue are delivered in the order sent, which is all the snapshot
+ * algorithm needs of a channel.
+ *
+ * Each client has a reader thread, which routes what the client sends, and a
+ * writer thread, which drains the client's outbound queue into its socket.
+ * So a sender never waits on a subscriber's socket (two hosts sending to each
+ * other cannot deadlock), and a subscriber that has gone away only loses the
+ * messages sent to it.  Like a JMS provider's Queues, the outbound queues are
+ * not bounded; a subscriber that falls more than BEHIND bytes behind is
+ * reported, as the senders are outrunning it.
+ *
+ *   java -cp Spring2018Project6-ejb.jar pit.LocalBroker [port]
+ */
+public class LocalBroker {
+
+    private static final long BEHIND = 64 << 20;
+
+    private final int port;
+    private final HashMap<String, Client> subscribers = new HashMap<String, Client>();
+    private final HashMap<String, LinkedList<Frame>> pending = new HashMap<String, LinkedList<Frame>>();
+
+    public LocalBroker(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : LocalBrokerClient.DEFAULT_PORT;
+        new LocalBroker(port).run();
+    }
+
+    public void run() throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        System.out.println("LocalBroker listening on port " + port);
+        while (true) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            Thread reader = new Thread(new Client(socket), "LocalBroker-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void route(Frame frame) {
+        Client subscriber;
+        synchronized (this) {
+            subscriber = subscribers.get(frame.queue);
+            if (subscriber == null) {
+                LinkedList<Frame> held = pending.get(frame.queue);
+                if (held == null) {
+                    held = new LinkedList<Frame>();
+                    pending.put(frame.queue, held);
+                }
+                held.add(frame);
+                return;
+            }
+        }
+        subscriber.deliver(frame);
+    }
+
+    // Held messages are delivered under the lock so nothing can overtake them
+    private synchronized void subscribe(String queue, Client client) {
+        subscribers.put(queue, client);
+        LinkedList<Frame> held = pending.remove(queue);
+        if (held != null) {
+            for (Frame frame : held) {
+                client.deliver(frame);
+            }
+        }
+    }
+
+    private synchronized void unsubscribe(Client client) {
+        for (Iterator<Map.Entry<String, Client>> it = subscribers.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue() == client) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Frame {
+        String queue;
+        long sentAt;
+        byte[] body;
+    }
+
+    private class Client implements Runnable {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Frame> outbound = new LinkedBlockingQueue<Frame>();
+        private final Thread writer;
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private volatile boolean closed = false;
+        private volatile boolean behind = false;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "LocalBroker-writer-" + socket.getPort());
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    byte kind = in.readByte();
+                    String queue = in.readUTF();
+                    if (kind == LocalBrokerClient.SUBSCRIBE) {
+                        subscribe(queue, this);
+                        continue;
+                    }
+                    Frame frame = new Frame();
+                    frame.queue = queue;
+                    frame.sentAt = in.readLong();
+                    frame.body = new byte[in.readInt()];
+                    in.readFully(frame.body);
+                    route(frame);
+                }
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                close();
+            }
+        }
+
+        // Queue a message for the writer thread; never waits on the socket
+        void deliver(Frame frame) {
+            if (closed) {
+                return;
+            }
+            outbound.add(frame);
+            if (queuedBytes.addAndGet(frame.body.length) > BEHIND && !behind) {
+                behind = true;
+                System.out.println("LocalBroker: over " + (BEHIND >> 20) + " MB queued for " + socket.getPort() + ", which is not keeping up");
+            }
+        }
+
+        // Write queued messages, flushing whenever the queue runs dry
+        private void write() {
+            try {
+                while (true) {
+                    Frame frame = outbound.poll();
+                    if (frame == null) {
+                        out.flush();
+                        frame = outbound.take();
+                    }
+                    out.writeByte(LocalBrokerClient.MESSAGE);
+                    out.writeUTF(frame.queue);
+                    out.writeLong(frame.sentAt);
+                    out.writeInt(frame.body.length);
+                    out.write(frame.body);
+                    if (queuedBytes.addAndGet(-frame.body.length) < BEHIND / 2) {
+                        behind = false;
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("LocalBroker dropping messages to " + socket.getPort() + ": " + e);
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            } finally {
+                close();
+            }
+        }
+
+        // Stop delivering to this client; its reader and writer both end
+        private void close() {
+            closed = true;
+            unsubscribe(this);
+            outbound.clear();
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
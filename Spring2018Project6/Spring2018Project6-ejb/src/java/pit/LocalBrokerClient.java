@@ -0,0 +1,108 @@
+package pit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+/*
+ * A connection to the LocalBroker, the loopback stand-in for JMS used when
+ * Players run in separate PlayerHost processes.  Queues keep their JMS names
+ * (e.g. jms/PITplayer3).  Every frame is a kind byte and a queue name; a
+ * MESSAGE frame then carries the send time and the serialized object.
+ */
+public class LocalBrokerClient {
+    public static final int DEFAULT_PORT = 7700;
+    static final byte SUBSCRIBE = 'S';
+    static final byte MESSAGE = 'M';
+
+    // Receives the objects sent to the Queues this client subscribed to
+    public interface Listener {
+        void onMessage(String queue, Object message, long sentAt);
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public LocalBrokerClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getByName(null), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    // The control Queue a PlayerHost listens on for its Placement
+    public static String hostQueue(int process) {
+        return "pit/PlayerHost" + process;
+    }
+
+    public synchronized void send(String queue, Serializable message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objects = new ObjectOutputStream(bytes);
+        objects.writeObject(message);
+        objects.close();
+        out.writeByte(MESSAGE);
+        out.writeUTF(queue);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    // Ask for the messages sent to queue, including any sent before now
+    public synchronized void subscribe(String queue) throws IOException {
+        out.writeByte(SUBSCRIBE);
+        out.writeUTF(queue);
+        out.flush();
+    }
+
+    // Deliver messages to listener, in order, until the connection closes
+    public void receive(Listener listener) {
+        try {
+            while (true) {
+                in.readByte(); // only MESSAGE frames come from the broker
+                String queue = in.readUTF();
+                long sentAt = in.readLong();
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                Object message = new ObjectInputStream(new ByteArrayInputStream(body)).readObject();
+                listener.onMessage(queue, message, sentAt);
+            }
+        } catch (EOFException | SocketException e) {
+            // closed
+        } catch (Exception e) {
+            System.out.println("LocalBrokerClient threw exception " + e);
+        }
+    }
+
+    // receive() on a new daemon thread
+    public void start(final Listener listener, String name) {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(listener);
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
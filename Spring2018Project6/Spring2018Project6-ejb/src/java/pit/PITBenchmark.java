@@ -0,0 +1,383 @@
+package pit;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Macro benchmark of the trading and snapshot message flow.  Players are
+ * PITPlayerModels on an InMemoryBroker, dealt and snapshotted the way
+ * PITsnapshot does it.  Every combination of the swept settings is run once
+ * and written as a CSV row: message throughput, snapshot latency
+ * percentiles, peak heap, GC time, and the bytes the broker threads
+ * allocate per message delivered while trading between snapshots (after the
+ * first, which is warm-up).  Each snapshot is also checked for conservation
+ * of every commodity.  With --baseline, results are compared with an earlier
+ * CSV and the exit status is 1 if any configuration regressed by more than
+ * --tolerance percent.  Every configuration trades for the whole of
+ * --durationMs, which must be longer than --snapshotMs.  With --maxBytesPerMessage the exit status is also 1
+ * if trading allocated more than that, or if it could not be measured;
+ * steady trading should allocate nothing, so 0 checks that it still doesn't
+ * (TradingAllocationTest checks the same in the unit tests).
+ *
+ * Hands are dealt by HandDealer, with each --deal distribution over each
+ * --commodities count (0 means one commodity per Player), so that skewed
+ * holdings and hot commodities can be compared with the usual single deal.
+ *
+ *   java -cp Spring2018Project6-ejb.jar:<javaee jars> pit.PITBenchmark
+ *       [--players 5,50,500 (at most 5000)] [--hand 10,100] [--commodities 0]
+ *       [--deal single,uniform,zipf,hot] [--zipfSkew 1.0] [--hotPercent 80]
+ *       [--accept 80] [--snapshotMs 500] [--durationMs 5000] [--threads N]
+ *       [--out results.csv] [--baseline baseline.csv] [--tolerance 10]
+ *       [--maxBytesPerMessage 0]
+ *
+ * Each snapshot sends numPlayers * (numPlayers - 1) Markers, and every
+ * Player keeps its Queue table and snapshot recording per other Player, so
+ * memory grows with the square of --players.  5000 Players is about the
+ * most that fits: it peaks near 2 GB (run with -Xmx2g) and needs a
+ * --snapshotMs of 10000 or more, as each snapshot takes over 10 s.
+ */
+public class PITBenchmark {
+
+    static final String HEADER = "players,hand,commodities,deal,acceptPercent,snapshotMs,durationMs,"
+            + "messagesPerSec,snapshots,failedSnapshots,inconsistentSnapshots,"
+            + "latencyP50,latencyP90,latencyP99,latencyMax,peakHeapMB,gcMillis,bytesPerMessage";
+
+    // The first seven columns identify a configuration
+    private static final int KEY_COLUMNS = 7;
+    private static final int THROUGHPUT_COLUMN = 7;
+    private static final int P99_COLUMN = 13;
+    private static final int BYTES_COLUMN = 17;
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        int[] players = ints(options, "--players", "5,50,500");
+        int[] hands = ints(options, "--hand", "10,100");
+        int[] commodityCounts = ints(options, "--commodities", "0");
+        String[] deals = value(options, "--deal", HandDealer.SINGLE).split(",");
+        double skew = Double.parseDouble(value(options, "--zipfSkew", "1.0"));
+        int hotPercent = Integer.parseInt(value(options, "--hotPercent", "80"));
+        int[] accepts = ints(options, "--accept", "80");
+        int[] snapshotIntervals = ints(options, "--snapshotMs", "500");
+        int duration = Integer.parseInt(value(options, "--durationMs", "5000"));
+        int threads = Integer.parseInt(value(options, "--threads", "" + Runtime.getRuntime().availableProcessors()));
+        String out = value(options, "--out", "results.csv");
+        for (int interval : snapshotIntervals) {
+            if (interval >= duration) {
+                System.out.println("PITBenchmark: --snapshotMs " + interval + " must be shorter than --durationMs " + duration
+                        + ", or no snapshot would be taken");
+                System.exit(2);
+            }
+        }
+
+        // The Players print every trade; keep that out of the measurements
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        ArrayList<String> rows = new ArrayList<String>();
+        for (int numPlayers : players) {
+            for (int hand : hands) {
+                for (int numCommodities : commodityCounts) {
+                    for (String deal : deals) {
+                        HandDealer dealer = new HandDealer();
+                        dealer.distribution = deal.trim();
+                        dealer.skew = skew;
+                        dealer.hotPercent = hotPercent;
+                        dealer.seed = 1;
+                        for (int accept : accepts) {
+                            for (int interval : snapshotIntervals) {
+                                String row = run(numPlayers, hand, numCommodities, dealer, accept, interval, duration, threads);
+                                console.println(row);
+                                rows.add(row);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.setOut(console);
+
+        PrintWriter csv = new PrintWriter(new FileWriter(out));
+        csv.println(HEADER);
+        for (String row : rows) {
+            csv.println(row);
+        }
+        csv.close();
+        System.out.println("PITBenchmark wrote " + rows.size() + " results to " + out);
+
+        boolean ok = true;
+        if (options.containsKey("--baseline")) {
+            int tolerance = Integer.parseInt(value(options, "--tolerance", "10"));
+            ok &= compare(rows, options.get("--baseline"), tolerance);
+        }
+        if (options.containsKey("--maxBytesPerMessage")) {
+            ok &= checkAllocation(rows, Double.parseDouble(options.get("--maxBytesPerMessage")));
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // Run one configuration and return its CSV row
+    static String run(int numPlayers, int hand, int numCommodities, HandDealer dealer, int accept, int interval,
+            int duration, int threads) throws Exception {
+        System.gc();
+        resetPeakHeap();
+        long gcBefore = gcMillis();
+
+        InMemoryBroker broker = new InMemoryBroker(numPlayers, threads);
+        String[] commodities = new String[(numCommodities > 0) ? numCommodities : numPlayers];
+        HashMap<String, Integer> commodityIndex = new HashMap<String, Integer>();
+        for (int c = 0; c < commodities.length; c++) {
+            commodities[c] = "Commodity" + c;
+            commodityIndex.put(commodities[c], c);
+        }
+        int[][] hands = dealer.deal(numPlayers, commodities.length, hand);
+        int[] dealt = HandDealer.totals(hands);
+        long start = System.currentTimeMillis();
+        for (int player = 0; player < numPlayers; player++) {
+            NewHand newHand = new NewHand();
+            newHand.numPlayers = numPlayers;
+            newHand.tradeDuration = duration;
+            newHand.acceptPercent = accept;
+            newHand.traceTrades = false;
+            newHand.commodities = commodities;
+            newHand.counts = hands[player];
+            broker.sendToPlayer(player, newHand);
+        }
+
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        int failed = 0;
+        int inconsistent = 0;
+        int snapshotId = 0;
+        // Allocation by the broker threads, and messages delivered, while trading
+        // between snapshots.  Measuring starts when the first snapshot is over,
+        // and each snapshot, finished or failed, starts a new quiet period.
+        Thread[] workers = broker.workerThreads();
+        long tradingBytes = 0;
+        long tradingMessages = 0;
+        long bytesAtQuiet = -1;
+        long messagesAtQuiet = 0;
+        long end = start + duration;
+        while (System.currentTimeMillis() + interval < end) {
+            Thread.sleep(interval);
+            if (bytesAtQuiet >= 0) {
+                long bytes = allocatedBytes(workers);
+                tradingBytes += bytes - bytesAtQuiet;
+                tradingMessages += broker.delivered.get() - messagesAtQuiet;
+            }
+            long initiatedAt = System.currentTimeMillis();
+            broker.sendToPlayer(numPlayers / 2, new Marker(-1, ++snapshotId, initiatedAt));
+            int[] totals = new int[commodities.length];
+            int reports = 0;
+            while (reports < numPlayers) {
+                HashMap state = (HashMap) broker.receive("jms/PITsnapshot", Math.max(5000, interval * 4));
+                if (state == null) {
+                    break;
+                }
+                if (((Integer) state.get(Marker.SNAPSHOT)) != snapshotId) {
+                    continue;
+                }
+                reports++;
+                for (Object key : state.keySet()) {
+                    Integer c = commodityIndex.get(key);
+                    if (c != null) {
+                        totals[c] += (Integer) state.get(key);
+                    }
+                }
+            }
+            messagesAtQuiet = broker.delivered.get();
+            bytesAtQuiet = allocatedBytes(workers);
+            if (reports < numPlayers) {
+                failed++;
+                continue;
+            }
+            latencies.add(System.currentTimeMillis() - initiatedAt);
+            if (!Arrays.equals(totals, dealt)) {
+                inconsistent++;
+            }
+        }
+        // Trade on to the end, so every row measures the same duration
+        long remaining = end - System.currentTimeMillis();
+        if (remaining > 0) {
+            Thread.sleep(remaining);
+        }
+        if (bytesAtQuiet >= 0) {
+            tradingBytes += allocatedBytes(workers) - bytesAtQuiet;
+            tradingMessages += broker.delivered.get() - messagesAtQuiet;
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long messages = broker.delivered.get();
+        long peakHeap = peakHeap();
+        broker.shutdown();
+
+        Collections.sort(latencies);
+        return numPlayers + "," + hand + "," + commodities.length + "," + dealer.distribution + "," + accept + "," + interval + "," + duration + ","
+                + (messages * 1000 / elapsed) + "," + latencies.size() + "," + failed + "," + inconsistent + ","
+                + percentile(latencies, 50) + "," + percentile(latencies, 90) + ","
+                + percentile(latencies, 99) + "," + percentile(latencies, 100) + ","
+                + (peakHeap >> 20) + "," + (gcMillis() - gcBefore) + ","
+                + ((tradingMessages == 0 || tradingBytes < 0) ? -1 : tradingBytes / (double) tradingMessages);
+    }
+
+    /*
+     * Fails any row whose trading allocated more than max bytes per message,
+     * or whose allocation could not be measured (-1: the JVM can't say, or
+     * no trading was seen between snapshots), as then nothing was checked.
+     */
+    static boolean checkAllocation(ArrayList<String> rows, double max) {
+        boolean ok = true;
+        for (String row : rows) {
+            String[] columns = row.split(",");
+            double bytes = Double.parseDouble(columns[BYTES_COLUMN]);
+            if (bytes < 0) {
+                System.out.println("PITBenchmark " + key(columns) + ": allocation per message was not measured  FAILED");
+                ok = false;
+            } else if (bytes > max) {
+                System.out.println("PITBenchmark " + key(columns) + ": " + bytes + " bytes allocated per message  REGRESSED");
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /*
+     * Total bytes the threads have allocated, or -1 if the JVM can't say
+     * (it needs the com.sun.management extension of ThreadMXBean).
+     */
+    static long allocatedBytes(Thread[] threads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        long total = 0;
+        for (Thread thread : threads) {
+            total += Math.max(0, threadBean.getThreadAllocatedBytes(thread.getId()));
+        }
+        return total;
+    }
+
+    /*
+     * Compare rows against a baseline CSV.  A configuration regresses if its
+     * throughput fell, or its p99 snapshot latency rose, by more than
+     * tolerance percent.  Returns false if anything regressed.
+     */
+    static boolean compare(ArrayList<String> rows, String baselineFile, int tolerance) throws IOException {
+        LinkedHashMap<String, String[]> baseline = new LinkedHashMap<String, String[]>();
+        BufferedReader in = new BufferedReader(new FileReader(baselineFile));
+        String line = in.readLine(); // header
+        while ((line = in.readLine()) != null) {
+            String[] columns = line.split(",");
+            baseline.put(key(columns), columns);
+        }
+        in.close();
+
+        boolean ok = true;
+        for (String row : rows) {
+            String[] columns = row.split(",");
+            String[] before = baseline.get(key(columns));
+            if (before == null) {
+                System.out.println("PITBenchmark: no baseline for " + key(columns));
+                continue;
+            }
+            long throughput = Long.parseLong(columns[THROUGHPUT_COLUMN]);
+            long baseThroughput = Long.parseLong(before[THROUGHPUT_COLUMN]);
+            long p99 = Long.parseLong(columns[P99_COLUMN]);
+            long baseP99 = Long.parseLong(before[P99_COLUMN]);
+            boolean slower = throughput * 100 < baseThroughput * (100 - tolerance);
+            boolean laggier = p99 * 100 > Math.max(1, baseP99) * (100 + tolerance);
+            System.out.println("PITBenchmark " + key(columns) + ": messages/s " + baseThroughput + " -> " + throughput
+                    + ", p99 " + baseP99 + " -> " + p99 + "ms" + ((slower || laggier) ? "  REGRESSED" : ""));
+            ok &= !(slower || laggier);
+        }
+        return ok;
+    }
+
+    private static String key(String[] columns) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < KEY_COLUMNS; i++) {
+            if (i > 0) key.append(",");
+            key.append(columns[i]);
+        }
+        return key.toString();
+    }
+
+    private static long percentile(ArrayList<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.size() * percent / 100.0) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    // Start measuring peakHeap() afresh
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /*
+     * The most heap used since resetPeakHeap(), as the JVM tracks it, not
+     * just when we happen to look.  Each pool's peak is added in, and the
+     * pools may have peaked at different times, so this is an upper bound.
+     */
+    private static long peakHeap() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static String value(Map<String, String> options, String name, String otherwise) {
+        return options.containsKey(name) ? options.get(name) : otherwise;
+    }
+
+    private static int[] ints(Map<String, String> options, String name, String otherwise) {
+        String[] parts = value(options, name, otherwise).split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -2,83 +2,245 @@ package pit;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import javax.jms.*;
-import javax.naming.*;
 
 /*
- * This is the ONLY file that you are to edit.  It is the model of play for
- * every PITplayer.  Each PITplayer instantiates this model and uses it to
- * process the messages it receives.
+ * The model of play for every Player.  Each PITplayer MDB instantiates this
+ * model and uses it to process the messages it receives, as do PlayerHost
+ * (for the Players placed in its process) and InMemoryBroker (for
+ * PITBenchmark); each sends through its own PITTransport.
  */
 public class PITPlayerModel {
 
     // Each PITplayer has a unique myPlayerNumber.  It is set in the PITPlayer constructor.
     private final int myPlayerNumber;
-    // Cards is this player's set of cards.  
+    // Cards is this player's set of cards, in no order (see takeCard).
     private final ArrayList cards = new ArrayList();
     // numTrades counts trades.
     private int numTrades = 0;
-    // maxTrades is the maximum number of trades, after which trading is stopped.
-    private final int maxTrades = 20000;
+    // tradeDeadline is the time after which trading is stopped (0 means trade until halted).
+    // It is set from the tradeDuration that comes with a NewHand.
+    private long tradeDeadline = 0;
+    // tenderInterval is the minimum time in ns between our TenderOffers, set from the NewHand tradeRate.
+    private long tenderInterval = 0;
+    // nextTenderTime is the earliest time (System.nanoTime) the next TenderOffer may be sent.
+    private long nextTenderTime = 0;
+    // acceptPercent is how often (in percent) we accept an offer.  It comes with a NewHand.
+    private int acceptPercent = 80;
     // numPlayers are the number of Players trading.  This comes with a NewHand from the PITsnapshot servlet
     private int numPlayers = 0;
     // halting indicates that the system is being reset, so ignore trades unti a new had received.
     private boolean halting = false;
 
+    /*
+     * Flow control.  backlog is a smoothed estimate of how long (ms) messages
+     * wait in our own Queue before we get to them.  We pass it to other Players
+     * on every AcceptOffer and RejectOffer, and keep the latest hints from
+     * other Players in a small table of HINT_SLOTS, so it costs the same
+     * however many Players there are: Player p's hint is in slot
+     * p % HINT_SLOTS (hintFrom, hintBacklog, and when it came in hintAt)
+     * until another Player's replaces it, and hints older than HINT_LIFETIME
+     * ms are forgotten.  Offers are steered towards
+     * less congested Players.  We never wait for anything while handling a
+     * message: a TenderOffer that would go to a congested Player, or would get
+     * ahead of the tradeRate, is held back (we keep the card) and counted in
+     * deferredTenders.  It is sent when we handle our next message, or when a
+     * Wake we send ourselves arrives.
+     */
+    private int backlog = 0;
+    private static final int HINT_SLOTS = 64;
+    private final int[] hintFrom = new int[HINT_SLOTS];
+    private final int[] hintBacklog = new int[HINT_SLOTS];
+    private final long[] hintAt = new long[HINT_SLOTS];
+    // A backlog above CONGESTED ms means the Player is falling behind
+    private static final int CONGESTED = 200;
+    private static final long HINT_LIFETIME = 1000;
+    // How many Players to try, at most, when looking for one that is not congested
+    private static final int CHOICES = 4;
+    // How long to hold back a TenderOffer when every Player tried was congested
+    private static final long CONGESTED_PAUSE = 50;
+    private int deferredTenders = 0;
+    private boolean wakePending = false;
+    private static final Wake WAKE = new Wake();
+    private final String myQueue;
+
+    /*
+     * Locality.  When Players are spread over PlayerHost processes, the NewHand
+     * says where each one runs.  localPartners are the other Players in our
+     * process and remotePartners the rest; localTradePercent of our
+     * TenderOffers go to a local partner.  null when there is no placement.
+     */
+    private int[] localPartners;
+    private int[] remotePartners;
+    private int localTradePercent = -1;
+
     /* The snapshot servlet (PITsnapshot) is expecting to be passed an ObjectMessage
-     * where the object is a HashMap. Therefore this definition of that HashMap is 
-     * provided although it is not currently used (it is for you to use).
+     * where the object is a HashMap.
      * PITsnapshot is expecting a set of attibute/value pairs.  These include the player
      * number, as in state.put("Player", myPlayerNumber), and each commodity string
-     * and the number of that commodity in the snapshot.
+     * and the number of that commodity in the snapshot.  The snapshot id and the
+     * timings named in Marker are included as well.
      * Also included below is a utility method that will convert a HashMap into a string
      * which is useful for printing diagnostic messages to the console.
      */
     private HashMap<String, Integer> state;
 
+    /*
+     * Snapshot (Chandy-Lamport) recording.  snapshotId is the snapshot we last
+     * recorded our state for; Markers for earlier snapshots are ignored.
+     * recording[p] is true while the channel from Player p is still open, and
+     * the cards arriving on it are kept in the channelRecorder until p's
+     * Marker arrives.
+     */
+    private int snapshotId = -1;
+    private boolean[] recording = new boolean[0];
+    private final ChannelRecorder channelRecorder;
+    private int openChannels = 0;
+    /*
+     * When the NewHand asks for channelCounts, we count the trade messages
+     * sent to (sentTo) and received from (receivedFrom) each Player, and
+     * report them with the snapshot so SnapshotVerifier can check that every
+     * channel was cut consistently.  Trades can beat the NewHand, so the
+     * counts start at the Reset and grow as Players are first seen (see count);
+     * a NewHand without channelCounts drops them and counting stops.
+     */
+    private boolean channelCounts = false;
+    private int[] sentTo = new int[0];
+    private int[] receivedFrom = new int[0];
+    // Timings for the snapshot in progress, reported in ms since initiatedAt
+    private long initiatedAt;
+    private long firstMarkerAt;
+
+    /*
+     * transport carries our messages to other Players and to PITsnapshot.
+     * The Queues are looked up once: playerQueues[p] is Player p's Queue.
+     * The trade messages we send are reused for every send (the transport
+     * is done with a message once send returns), so that steady trading
+     * allocates nothing.  Set traceTrades false (in the NewHand) to also
+     * stop printing every trade.
+     */
+    private final PITTransport transport;
+    private PITTransport.Endpoint[] playerQueues = new PITTransport.Endpoint[0];
+    private PITTransport.Endpoint monitorQueue;
+    private PITTransport.Endpoint snapshotQueue;
+    private final TenderOffer tender = new TenderOffer();
+    private final AcceptOffer accept = new AcceptOffer();
+    private final RejectOffer reject = new RejectOffer();
+    private boolean traceTrades = true;
+
+    // Message kinds, found by the message's class and dispatched with a switch
+    private static final int RESET = 1;
+    private static final int NEW_HAND = 2;
+    private static final int TENDER_OFFER = 3;
+    private static final int ACCEPT_OFFER = 4;
+    private static final int REJECT_OFFER = 5;
+    private static final int MARKER = 6;
+    private static final int WAKE_UP = 7;
+    private static final IdentityHashMap<Class<?>, Integer> KINDS = new IdentityHashMap<Class<?>, Integer>();
+
+    static {
+        KINDS.put(Reset.class, RESET);
+        KINDS.put(NewHand.class, NEW_HAND);
+        KINDS.put(TenderOffer.class, TENDER_OFFER);
+        KINDS.put(AcceptOffer.class, ACCEPT_OFFER);
+        KINDS.put(RejectOffer.class, REJECT_OFFER);
+        KINDS.put(Marker.class, MARKER);
+        KINDS.put(Wake.class, WAKE_UP);
+    }
+
     // PITPlayerModel constructor saves what number player this object represents.
     PITPlayerModel(int myNumber) {
+        this(myNumber, new JmsTransport());
+    }
+
+    PITPlayerModel(int myNumber, PITTransport transport) {
         myPlayerNumber = myNumber;
+        this.transport = transport;
+        channelRecorder = new ChannelRecorder();
+        Arrays.fill(hintFrom, -1);
+        myQueue = "jms/PITplayer" + myNumber;
+        tender.sourcePlayer = myNumber;
+        accept.sourcePlayer = myNumber;
+        reject.sourcePlayer = myNumber;
     }
 
     public void onMessage(Message message) {
         try {
             if (message instanceof ObjectMessage) {
-                Object o = ((ObjectMessage) message).getObject();
+                // A message sent with a delivery delay (a Wake) only became
+                // deliverable at its delivery time, not when it was sent
+                long sentAt = Math.max(message.getJMSTimestamp(), message.getJMSDeliveryTime());
+                onObject(((ObjectMessage) message).getObject(), sentAt);
+            }
+        } catch (Exception e) {
+            System.out.println("Exception thrown in PITplayer" + myPlayerNumber + ": " + e);
+        }
+    }
+
+    // Process the object carried by a message, sent at sentAt (0 if unknown)
+    void onObject(Object o, long sentAt) {
+        try {
+            /*
+             * There are 7 types of messages:  Reset, NewHand, TenderOffer,
+             * AcceptOffer, RejectOffer, Marker, and the Wake we send ourselves
+             */
+            Integer kind = (o == null) ? null : KINDS.get(o.getClass());
+
+            // A Wake was meant to wait, so the time it took says nothing about our backlog
+            if (kind == null || kind != WAKE_UP) {
+                observeBacklog(sentAt);
+            }
 
-                /*
-                 * There are 6 types of messages:  Reset, NewHand, TenderOffer,
-                 * AcceptOffer, RejectOffer, and Marker
-                 */
-                
+            switch ((kind == null) ? 0 : kind) {
                 // Reset the Player.  This message is generated by the PITsnapshot servlet
-                if (o instanceof Reset) {
+                case RESET:
                     doReset((Reset) o);
+                    break;
 
                 // NewHand received from PITsnapshot
-                } else if (o instanceof NewHand) {
+                case NEW_HAND:
                     // Add the new hand into cards
                     doNewHand((NewHand) o);
+                    break;
 
                 // Receive an offer from another Player
-                } else if (o instanceof TenderOffer) {
+                case TENDER_OFFER:
                     doReceiveTenderOffer((TenderOffer) o);
+                    break;
 
                 // Another Player accepted our offer
-                } else if (o instanceof AcceptOffer) {
+                case ACCEPT_OFFER:
                     doReceiveAcceptOffer((AcceptOffer) o);
+                    break;
 
                 // Another Player rejected our offer
-                } else if (o instanceof RejectOffer) {
+                case REJECT_OFFER:
                     doReceiveRejectOffer((RejectOffer) o);
+                    break;
+
+                // A snapshot Marker, from PITsnapshot or another Player
+                case MARKER:
+                    doReceiveMarker((Marker) o);
+                    break;
+
+                // Our own reminder to send the TenderOffers we held back
+                case WAKE_UP:
+                    wakePending = false;
+                    break;
 
-                } else {
+                default:
                     System.out.println("PITplayer" + myPlayerNumber + " received unknown Message type");
                     // just ignore it
-                }
+            }
+
+            // Any message is a chance to send the TenderOffers we held back
+            if (deferredTenders > 0) {
+                sendTenders();
             }
         } catch (Exception e) {
             System.out.println("Exception thrown in PITplayer" + myPlayerNumber + ": " + e);
@@ -91,25 +253,62 @@ public class PITPlayerModel {
             System.out.println("PITplayer" + myPlayerNumber + " received Reset HALT");
             halting = true;
             // Reply to the PITsnapshot servlet acknowledging the Reset HALT
-            sendToQueue("jms/PITmonitor", reset);
+            monitorQueue().send(reset);
         } else { // action == Reset.CLEAR
             System.out.println("PITplayer" + myPlayerNumber + " received Reset RESET");
             // Drop all cards in hand
             cards.clear();
             numTrades = 0;
             numPlayers = 0;
+            tradeDeadline = 0;
+            tenderInterval = 0;
+            nextTenderTime = 0;
+            acceptPercent = 80;
+            backlog = 0;
+            Arrays.fill(hintFrom, -1);
+            deferredTenders = 0;
+            wakePending = false;
+            localPartners = null;
+            remotePartners = null;
+            localTradePercent = -1;
+            snapshotId = -1;
+            recording = new boolean[0];
+            channelRecorder.release();
+            openChannels = 0;
+            channelCounts = false;
+            sentTo = new int[0];
+            receivedFrom = new int[0];
+            traceTrades = true;
+            state = null;
             halting = false;
             // Reply to the PITsnapshot servlet acknowledging the Reset
-            sendToQueue("jms/PITmonitor", reset);
+            monitorQueue().send(reset);
         }
     }
 
     private void doNewHand(NewHand hand) throws Exception {
         // Add a new hand of cards.  
         // It is actually possible that an offer from another Player has been
-        // accepted already, beating the NewHand
-        cards.addAll((hand).newHand);
+        // accepted already, beating the NewHand.
+        // The hand comes as a count of each commodity.  It need not be
+        // shuffled, as takeCard picks cards at random.
+        for (int i = 0; i < hand.commodities.length; i++) {
+            for (int n = 0; n < hand.counts[i]; n++) {
+                cards.add(hand.commodities[i]);
+            }
+        }
         numPlayers = (hand).numPlayers;
+        tradeDeadline = (hand.tradeDuration > 0) ? System.currentTimeMillis() + hand.tradeDuration : 0;
+        tenderInterval = (hand.tradeRate > 0) ? 1000000000L / hand.tradeRate : 0;
+        acceptPercent = hand.acceptPercent;
+        placePartners(hand.placement, hand.localTradePercent);
+        channelCounts = hand.channelCounts;
+        if (!channelCounts) {
+            sentTo = new int[0];
+            receivedFrom = new int[0];
+        }
+        traceTrades = hand.traceTrades;
+        lookUpPlayerQueues();
         System.out.println("PITplayer" + myPlayerNumber + " new hand: " + toString(cards));
         // Offer a card to another Player
         doTenderOffer();
@@ -120,12 +319,15 @@ public class PITPlayerModel {
             return; // if halting, discard trade
         }
 
-        System.out.println("PITplayer" + myPlayerNumber + " received offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
+        if (traceTrades) {
+            System.out.println("PITplayer" + myPlayerNumber + " received offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
+        }
+        noteReceived(trade.sourcePlayer, trade.tradeCard);
 
         // When receiving an offer, decide whether to Accept or Reject it
 
-        if (Math.random() < 0.8) {
-            // Accept the trade 80% of the time
+        if (Math.random() * 100 < acceptPercent) {
+            // Accept the trade acceptPercent of the time
 
             // Add the Offer to my hand of cards
             cards.add(trade.tradeCard);
@@ -141,21 +343,21 @@ public class PITPlayerModel {
 
     private void doReplyAccept(int sendTo) throws Exception {
 
-        // if hit maxTrades limit, then stop sending trades
-        if (maxTrades(maxTrades)) {
+        // if past the trading deadline, then stop sending trades
+        if (tradingStopped()) {
             return;
         }
 
         // In payment for the card I just accepted, send back one of my cards.
-        AcceptOffer newTrade = new AcceptOffer();
-        newTrade.tradeCard = (String) cards.remove(0);
-        newTrade.sourcePlayer = myPlayerNumber;
+        accept.tradeCard = takeCard();
+        accept.backlog = backlog;
 
         //Send the card to the other player
-        System.out.println("PITplayer" + myPlayerNumber + " accepting offer and paying with: " + newTrade.tradeCard + " to player: " + sendTo);
-        System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
-        String sendToJNDI = "jms/PITplayer" + sendTo;
-        sendToQueue(sendToJNDI, newTrade);
+        if (traceTrades) {
+            System.out.println("PITplayer" + myPlayerNumber + " accepting offer and paying with: " + accept.tradeCard + " to player: " + sendTo);
+            System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        }
+        sendTrade(sendTo, accept);
     }
 
     // Reply rejecting an offer that was received.  Send back their card.
@@ -164,22 +366,24 @@ public class PITPlayerModel {
             return; // if halting, discard trade
         }
 
-        System.out.println("PITplayer" + myPlayerNumber + " rejecting offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
-        System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        if (traceTrades) {
+            System.out.println("PITplayer" + myPlayerNumber + " rejecting offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
+            System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        }
 
-        // if hit maxTrades limit, then stop sending trades
-        if (maxTrades(maxTrades)) {
+        // if past the trading deadline, then stop sending trades,
+        // keeping their card rather than losing it
+        if (tradingStopped()) {
+            cards.add(trade.tradeCard);
             return;
         }
 
         // Send back their card that I am rejecting
-        RejectOffer newTrade = new RejectOffer();
-        newTrade.tradeCard = trade.tradeCard;
-        newTrade.sourcePlayer = myPlayerNumber;
+        reject.tradeCard = trade.tradeCard;
+        reject.backlog = backlog;
 
         //Send the card to the other player
-        String sendToJNDI = "jms/PITplayer" + trade.sourcePlayer;
-        sendToQueue(sendToJNDI, newTrade);
+        sendTrade(trade.sourcePlayer, reject);
 
     }
 
@@ -191,9 +395,13 @@ public class PITPlayerModel {
         }
         // Having received a AcceptOffer from another Player, add it to my hand of cards
         cards.add(trade.tradeCard);
+        notePartnerBacklog(trade.sourcePlayer, trade.backlog);
+        noteReceived(trade.sourcePlayer, trade.tradeCard);
 
-        System.out.println("PITplayer" + myPlayerNumber + " received: " + trade.tradeCard + " as payment from player: " + trade.sourcePlayer);
-        System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        if (traceTrades) {
+            System.out.println("PITplayer" + myPlayerNumber + " received: " + trade.tradeCard + " as payment from player: " + trade.sourcePlayer);
+            System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        }
         // Make another offer to a random player
         doTenderOffer();
     }
@@ -205,18 +413,22 @@ public class PITPlayerModel {
         }
         // Because the offer was rejected, and returned, add it back into my cards
         cards.add(trade.tradeCard);
+        notePartnerBacklog(trade.sourcePlayer, trade.backlog);
+        noteReceived(trade.sourcePlayer, trade.tradeCard);
 
-        System.out.println("PITplayer" + myPlayerNumber + " received rejected offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
-        System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        if (traceTrades) {
+            System.out.println("PITplayer" + myPlayerNumber + " received rejected offer of: " + trade.tradeCard + " from player: " + trade.sourcePlayer);
+            System.out.println("PITplayer" + myPlayerNumber + " hand: " + toString(cards));
+        }
         // Make another offer to a random player
         doTenderOffer();
     }
 
-    // Make an offer to a random player
+    // Make an offer to another player, as soon as flow control allows
     private void doTenderOffer() throws Exception {
 
-        // if hit maxTrades limit, then stop sending trades
-        if (maxTrades(maxTrades)) {
+        // if past the trading deadline, then stop sending trades
+        if (tradingStopped()) {
             return;
         }
 
@@ -230,22 +442,294 @@ public class PITPlayerModel {
             return;
         }
 
-        // Create a new offer from my set of cards, and send to another player
-        TenderOffer newTrade = new TenderOffer();
-        newTrade.tradeCard = (String) cards.remove(0);
-        newTrade.sourcePlayer = myPlayerNumber;
+        deferredTenders++;
+        sendTenders();
+    }
 
-        // Find a random player to trade to (not including myself)
-        int sendTo = myPlayerNumber;
-        while (sendTo == myPlayerNumber) {
-            sendTo = Math.round((float) Math.random() * (numPlayers - 1));
+    /*
+     * Send the TenderOffers we owe, each to the least congested of a few
+     * random players.  Stop, keeping the cards, if that would get ahead of the
+     * tradeRate or every player tried is congested, and make sure a Wake will
+     * bring us back.  Offers owed with no card in hand wait for one to arrive.
+     */
+    private void sendTenders() throws Exception {
+        while (deferredTenders > 0 && !cards.isEmpty()) {
+            if (halting || (tradeDeadline != 0 && System.currentTimeMillis() > tradeDeadline)) {
+                deferredTenders = 0;
+                return;
+            }
+            long now = System.nanoTime();
+            if (tenderInterval > 0 && now < nextTenderTime) {
+                wakeLater((nextTenderTime - now) / 1000000 + 1);
+                return;
+            }
+            int sendTo = leastCongestedPartner();
+            if (partnerBacklog(sendTo) > CONGESTED) {
+                wakeLater(CONGESTED_PAUSE);
+                return;
+            }
+            deferredTenders--;
+            if (tenderInterval > 0) {
+                nextTenderTime = Math.max(now, nextTenderTime) + tenderInterval;
+            }
+
+            // Create a new offer from my set of cards, and send to another player
+            tender.tradeCard = takeCard();
+            if (traceTrades) {
+                System.out.println("PITplayer" + myPlayerNumber + " offered: " + tender.tradeCard + " to player: " + sendTo);
+            }
+            sendTrade(sendTo, tender);
         }
+    }
 
-        //Send the card to the other player
-        System.out.println("PITplayer" + myPlayerNumber + " offered: " + newTrade.tradeCard + " to player: " + sendTo);
-        String sendToJNDI = "jms/PITplayer" + sendTo;
-        sendToQueue(sendToJNDI, newTrade);
+    // The less congested of two random players, trying a few more while both are congested
+    private int leastCongestedPartner() {
+        boolean local = (localTradePercent >= 0) && (Math.random() * 100 < localTradePercent);
+        int best = randomPartner(local);
+        for (int choice = 1; choice < CHOICES; choice++) {
+            if (choice >= 2 && partnerBacklog(best) <= CONGESTED) {
+                break;
+            }
+            int other = randomPartner(local);
+            if (partnerBacklog(other) < partnerBacklog(best)) {
+                best = other;
+            }
+        }
+        return best;
+    }
 
+    // Have a Wake delivered to us after delay ms, unless one is already coming
+    private void wakeLater(long delay) throws Exception {
+        if (!wakePending) {
+            wakePending = true;
+            transport.sendLater(myQueue, WAKE, delay);
+        }
+    }
+
+    /*
+     * Chandy-Lamport.  On the first Marker of a snapshot, record our cards,
+     * start recording every incoming channel, and send a Marker to every other
+     * Player.  The channel a Marker arrives on is closed, so the channel the
+     * first Marker came on stays empty.  When every channel is closed, the
+     * cards recorded in transit are added in and the state is reported.
+     */
+    private void doReceiveMarker(Marker marker) throws Exception {
+        // Snapshot ids only grow, so a Marker for an older snapshot is left over
+        // from one we have already moved on from; it must not restart it
+        if (marker.snapshotId < snapshotId) {
+            return;
+        }
+        if (marker.snapshotId > snapshotId) {
+            startSnapshot(marker);
+        }
+        if (marker.source >= 0 && marker.source < recording.length && recording[marker.source]) {
+            recording[marker.source] = false;
+            openChannels--;
+            if (openChannels == 0) {
+                finishSnapshot(marker.source);
+            }
+        }
+    }
+
+    private void startSnapshot(Marker marker) throws Exception {
+        snapshotId = marker.snapshotId;
+        initiatedAt = marker.initiatedAt;
+        firstMarkerAt = System.currentTimeMillis();
+        System.out.println("PITplayer" + myPlayerNumber + " recording snapshot " + snapshotId);
+
+        state = new HashMap<String, Integer>();
+        state.put("Player", myPlayerNumber);
+        for (int i = 0; i < cards.size(); i++) {
+            addToState((String) cards.get(i));
+        }
+        if (channelCounts) {
+            for (int player = 0; player < numPlayers; player++) {
+                if (player != myPlayerNumber) {
+                    state.put(Marker.SENT + player, counted(sentTo, player));
+                    state.put(Marker.RECEIVED + player, counted(receivedFrom, player));
+                }
+            }
+        }
+
+        recording = new boolean[numPlayers];
+        channelRecorder.start(numPlayers);
+        openChannels = 0;
+        for (int player = 0; player < numPlayers; player++) {
+            if (player != myPlayerNumber) {
+                recording[player] = true;
+                openChannels++;
+            }
+        }
+
+        Marker out = new Marker(myPlayerNumber, snapshotId, initiatedAt);
+        for (int player = 0; player < numPlayers; player++) {
+            if (player != myPlayerNumber) {
+                playerQueue(player).send(out);
+            }
+        }
+
+        // Without a NewHand there are no channels to wait for
+        if (openChannels == 0) {
+            finishSnapshot(-1);
+        }
+    }
+
+    // Count a trade message received, and keep its card if its channel is still being recorded
+    private void noteReceived(int source, String card) throws Exception {
+        if (source >= 0 && countingChannels()) {
+            receivedFrom = count(receivedFrom, source);
+        }
+        if (source >= 0 && source < recording.length && recording[source]) {
+            channelRecorder.record(source, card);
+        }
+    }
+
+    // Send a trade message (carrying a card) to another Player
+    private void sendTrade(int sendTo, Serializable trade) throws Exception {
+        if (countingChannels()) {
+            sentTo = count(sentTo, sendTo);
+        }
+        playerQueue(sendTo).send(trade);
+    }
+
+    // Until the NewHand comes we can't tell whether it wants channelCounts
+    private boolean countingChannels() {
+        return channelCounts || numPlayers == 0;
+    }
+
+    // Add one to counts[player], growing counts if the player is new to it
+    private static int[] count(int[] counts, int player) {
+        if (player >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(player + 1, counts.length * 2));
+        }
+        counts[player]++;
+        return counts;
+    }
+
+    private static int counted(int[] counts, int player) {
+        return (player < counts.length) ? counts[player] : 0;
+    }
+
+    private void finishSnapshot(int lastChannel) throws Exception {
+        long lastChannelClosedAt = System.currentTimeMillis();
+        channelRecorder.addTo(state);
+        if (channelCounts) {
+            for (int player = 0; player < numPlayers; player++) {
+                if (player != myPlayerNumber) {
+                    state.put(Marker.RECORDED + player, channelRecorder.recordedFrom(player));
+                }
+            }
+        }
+        System.out.println("PITplayer" + myPlayerNumber + " snapshot " + snapshotId + " channels: " + channelRecorder.usage());
+        channelRecorder.release();
+        state.put(Marker.SNAPSHOT, snapshotId);
+        state.put(Marker.FIRST_MARKER, (int) (firstMarkerAt - initiatedAt));
+        state.put(Marker.LAST_CHANNEL_CLOSED, (int) (lastChannelClosedAt - initiatedAt));
+        state.put(Marker.LAST_CHANNEL, lastChannel);
+        state.put(Marker.REPORT_SENT, (int) (System.currentTimeMillis() - initiatedAt));
+        System.out.println("PITplayer" + myPlayerNumber + " snapshot " + snapshotId + ": " + toString(state));
+        if (snapshotQueue == null) {
+            snapshotQueue = transport.endpoint("jms/PITsnapshot");
+        }
+        snapshotQueue.send(state);
+        state = null;
+    }
+
+    private void addToState(String commodity) {
+        Integer count = state.get(commodity);
+        state.put(commodity, (count == null) ? 1 : count + 1);
+    }
+
+    // Split the other Players into those in our process and those elsewhere
+    private void placePartners(int[] placement, int percent) {
+        if (placement == null || percent < 0 || myPlayerNumber >= placement.length) {
+            localPartners = null;
+            remotePartners = null;
+            localTradePercent = -1;
+            return;
+        }
+        int locals = 0;
+        for (int player = 0; player < placement.length; player++) {
+            if (player != myPlayerNumber && placement[player] == placement[myPlayerNumber]) {
+                locals++;
+            }
+        }
+        localPartners = new int[locals];
+        remotePartners = new int[placement.length - 1 - locals];
+        int l = 0;
+        int r = 0;
+        for (int player = 0; player < placement.length; player++) {
+            if (player == myPlayerNumber) {
+                continue;
+            }
+            if (placement[player] == placement[myPlayerNumber]) {
+                localPartners[l++] = player;
+            } else {
+                remotePartners[r++] = player;
+            }
+        }
+        localTradePercent = percent;
+    }
+
+    // Choose a random player other than myself, from our own process if local
+    // is set and there is a placement
+    private int randomPartner(boolean local) {
+        if (localPartners != null) {
+            int[] partners = local ? localPartners : remotePartners;
+            if (partners.length == 0) {
+                partners = local ? remotePartners : localPartners;
+            }
+            return partners[(int) (Math.random() * partners.length)];
+        }
+        int partner = myPlayerNumber;
+        while (partner == myPlayerNumber) {
+            partner = Math.round((float) Math.random() * (numPlayers - 1));
+        }
+        return partner;
+    }
+
+    /*
+     * Update our smoothed backlog from how long this message sat in our Queue.
+     * The JMS timestamp is set by the sender, and all Players share a clock.
+     */
+    private void observeBacklog(long sentAt) {
+        if (sentAt <= 0) {
+            return;
+        }
+        long waited = Math.max(0, System.currentTimeMillis() - sentAt);
+        backlog = (int) ((7L * backlog + Math.min(waited, Integer.MAX_VALUE)) / 8);
+    }
+
+    // Remember the backlog hint carried on a reply from another Player
+    private void notePartnerBacklog(int player, int hint) {
+        if (player >= 0) {
+            int slot = player % HINT_SLOTS;
+            hintFrom[slot] = player;
+            hintBacklog[slot] = hint;
+            hintAt[slot] = System.currentTimeMillis();
+        }
+    }
+
+    // The Player's last backlog hint, or 0 if it is too old to go by
+    private int partnerBacklog(int player) {
+        int slot = player % HINT_SLOTS;
+        if (hintFrom[slot] != player || System.currentTimeMillis() - hintAt[slot] > HINT_LIFETIME) {
+            return 0;
+        }
+        return hintBacklog[slot];
+    }
+
+    /*
+     * Take a card at random from the hand.  The last card is moved into its
+     * place, so this costs the same however big the hand is.
+     */
+    private String takeCard() {
+        int last = cards.size() - 1;
+        int pick = (int) (Math.random() * cards.size());
+        Object card = cards.get(pick);
+        cards.set(pick, cards.get(last));
+        cards.remove(last);
+        return (String) card;
     }
 
     // Create a string of hand size and all cards
@@ -270,27 +754,39 @@ public class PITPlayerModel {
         return stateString;
     }
 
-    // Send an object to a Queue, given its JNDI name
-    private void sendToQueue(String queueJNDI, Serializable message) throws Exception {
-        // Gather necessary JMS resources
-        Context ctxt = new InitialContext();
-        Connection con = ((ConnectionFactory) ctxt.lookup("jms/myConnectionFactory")).createConnection();
-        Session session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
-        Queue q = (Queue) ctxt.lookup(queueJNDI);
-        MessageProducer writer = session.createProducer(q);
-        ObjectMessage msg = session.createObjectMessage(message);
-        // Send the object to the Queue
-        writer.send(msg);
-        session.close();
-        con.close();
-        ctxt.close();
-    }
-
-    // Stop trading when the max number of Trades is reached
-    private boolean maxTrades(int max) {
-        if ((numTrades % 100) == 0) {
-            System.out.println("PITplayer" + myPlayerNumber + " tradeCount: " + numTrades);
-        }
-        return (numTrades++ < max) ? false : true;
+    // Look up every Player's Queue, unless already done for this many Players
+    private void lookUpPlayerQueues() throws Exception {
+        if (playerQueues.length == numPlayers) {
+            return;
+        }
+        playerQueues = new PITTransport.Endpoint[numPlayers];
+        for (int player = 0; player < numPlayers; player++) {
+            if (player != myPlayerNumber) {
+                playerQueues[player] = transport.endpoint("jms/PITplayer" + player);
+            }
+        }
+    }
+
+    private PITTransport.Endpoint playerQueue(int player) throws Exception {
+        if (player < playerQueues.length) {
+            return playerQueues[player];
+        }
+        return transport.endpoint("jms/PITplayer" + player);
+    }
+
+    private PITTransport.Endpoint monitorQueue() throws Exception {
+        if (monitorQueue == null) {
+            monitorQueue = transport.endpoint("jms/PITmonitor");
+        }
+        return monitorQueue;
+    }
+
+    // Stop trading once the trading deadline has passed
+    private boolean tradingStopped() {
+        if (traceTrades && (numTrades % 100) == 0) {
+            System.out.println("PITplayer" + myPlayerNumber + " tradeCount: " + numTrades + " backlog: " + backlog + "ms");
+        }
+        numTrades++;
+        return (tradeDeadline != 0) && (System.currentTimeMillis() > tradeDeadline);
     }
 }
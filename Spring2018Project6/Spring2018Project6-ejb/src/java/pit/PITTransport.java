@@ -0,0 +1,28 @@
+package pit;
+
+import java.io.Serializable;
+
+/*
+ * How a PITPlayerModel sends its messages.  Inside the application server
+ * this is JMS (JmsTransport).  Players hosted in a separate JVM by
+ * PlayerHost send through the LocalBroker, and PITBenchmark uses the
+ * InMemoryBroker.
+ *
+ * A Queue is looked up once, as an Endpoint, which the Player keeps and
+ * sends through for as long as it trades.  A transport must be done with a
+ * message when send() returns (by copying or serializing it), so that the
+ * Player can reuse the same message object for its next send.
+ */
+interface PITTransport {
+
+    // A Queue to send to
+    interface Endpoint {
+        void send(Serializable message) throws Exception;
+    }
+
+    // Look up a Queue, given its JNDI name
+    Endpoint endpoint(String queueJNDI) throws Exception;
+
+    // Send message to a Queue after delay ms, without keeping the caller waiting
+    void sendLater(String queueJNDI, Serializable message, long delay) throws Exception;
+}
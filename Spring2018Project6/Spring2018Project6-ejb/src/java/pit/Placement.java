@@ -0,0 +1,16 @@
+package pit;
+
+import java.io.Serializable;
+
+/* 
+ * A Placement is sent from PITsnapshot to a PlayerHost process, naming the
+ * Players that process should run.
+ */
+public class Placement implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // The PlayerHost process number
+    public int process;
+
+    // The Player numbers to run in that process
+    public int[] players;
+}
@@ -0,0 +1,111 @@
+package pit;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs a share of the Players in a JVM of its own, connected to the other
+ * processes and to PITsnapshot through the LocalBroker.  PITsnapshot (with
+ * playerProcesses set) decides the placement, and sends each PlayerHost a
+ * Placement naming its Players; from then on those Players are driven by
+ * the same PITPlayerModel as the PITplayer MDBs.
+ *
+ *   java -cp Spring2018Project6-ejb.jar pit.PlayerHost <process> [port]
+ *
+ * All messages are handled on one thread, one at a time, in arrival order.
+ * Messages sent later (see PITTransport.sendLater) are sent from a timer
+ * thread, and so come back through the LocalBroker onto that one thread.
+ */
+public class PlayerHost implements LocalBrokerClient.Listener {
+
+    private final int process;
+    private final LocalBrokerClient broker;
+    private final PITTransport transport;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PlayerHost-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final HashMap<String, PITPlayerModel> players = new HashMap<String, PITPlayerModel>();
+
+    public PlayerHost(int process, int port) throws IOException {
+        this.process = process;
+        broker = new LocalBrokerClient(port);
+        transport = new PITTransport() {
+            @Override
+            public Endpoint endpoint(final String queueJNDI) {
+                return new Endpoint() {
+                    @Override
+                    public void send(Serializable message) throws Exception {
+                        broker.send(queueJNDI, message);
+                    }
+                };
+            }
+
+            @Override
+            public void sendLater(final String queueJNDI, final Serializable message, long delay) {
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            broker.send(queueJNDI, message);
+                        } catch (IOException e) {
+                            System.out.println("PlayerHost" + PlayerHost.this.process + " could not send to " + queueJNDI + ": " + e);
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    public static void main(String[] args) throws IOException {
+        int process = Integer.parseInt(args[0]);
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : LocalBrokerClient.DEFAULT_PORT;
+        new PlayerHost(process, port).run();
+    }
+
+    public void run() throws IOException {
+        broker.subscribe(LocalBrokerClient.hostQueue(process));
+        System.out.println("PlayerHost" + process + " waiting for its Placement");
+        broker.receive(this);
+    }
+
+    @Override
+    public void onMessage(String queue, Object message, long sentAt) {
+        if (message instanceof Placement) {
+            place((Placement) message);
+            return;
+        }
+        PITPlayerModel player = players.get(queue);
+        if (player == null) {
+            System.out.println("PlayerHost" + process + " received a message for " + queue + " which it does not run");
+            return;
+        }
+        player.onObject(message, sentAt);
+    }
+
+    // Start (or keep) a PITPlayerModel for every Player in the Placement
+    private void place(Placement placement) {
+        for (int player : placement.players) {
+            String queue = "jms/PITplayer" + player;
+            if (players.containsKey(queue)) {
+                continue;
+            }
+            try {
+                players.put(queue, new PITPlayerModel(player, transport));
+                broker.subscribe(queue);
+            } catch (IOException e) {
+                System.out.println("PlayerHost" + process + " could not subscribe to " + queue + ": " + e);
+            }
+        }
+        System.out.println("PlayerHost" + process + " running " + players.size() + " players");
+    }
+}
@@ -13,5 +13,9 @@ public class RejectOffer implements Serializable {
     public int sourcePlayer;
     
     // The commodity being returned
-    public String tradeCard;    
+    public String tradeCard;
+
+    // A hint of how congested the rejecting Player is: the smoothed time, in ms,
+    // that messages currently wait in its Queue.  Used for flow control.
+    public int backlog;
 }
@@ -0,0 +1,11 @@
+package pit;
+
+import java.io.Serializable;
+
+/*
+ * A Wake is what a Player sends itself, after a delay, when it has held back
+ * a TenderOffer for flow control (see PITPlayerModel).  It carries nothing.
+ */
+public class Wake implements Serializable {
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,65 @@
+package pit;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/*
+ * Steady trading should allocate nothing: the Players reuse their offer and
+ * reply messages and the InMemoryBroker copies them into its mailbox slots.
+ * A few Players trade on an InMemoryBroker, and once they have warmed up,
+ * the bytes the broker threads allocate are measured over a stretch of
+ * trading with no snapshot.  PITBenchmark reports the same figure per
+ * configuration (bytesPerMessage); this keeps a change from quietly losing it.
+ */
+public class TradingAllocationTest {
+
+    private static final int PLAYERS = 5;
+    private static final int HAND = 100;
+    private static final long WARM_UP = 2000;
+    private static final long MEASURED = 1000;
+
+    private InMemoryBroker broker;
+
+    @After
+    public void shutDown() throws Exception {
+        if (broker != null) {
+            broker.shutdown();
+        }
+    }
+
+    @Test
+    public void tradingAllocatesNothingPerMessage() throws Exception {
+        broker = new InMemoryBroker(PLAYERS, 1);
+        String[] commodities = new String[PLAYERS];
+        for (int c = 0; c < commodities.length; c++) {
+            commodities[c] = "Commodity" + c;
+        }
+        HandDealer dealer = new HandDealer();
+        dealer.seed = 1;
+        int[][] hands = dealer.deal(PLAYERS, commodities.length, HAND);
+        for (int player = 0; player < PLAYERS; player++) {
+            NewHand newHand = new NewHand();
+            newHand.numPlayers = PLAYERS;
+            newHand.acceptPercent = 80;
+            newHand.traceTrades = false;
+            newHand.commodities = commodities;
+            newHand.counts = hands[player];
+            broker.sendToPlayer(player, newHand);
+        }
+        Thread.sleep(WARM_UP);
+
+        Thread[] workers = broker.workerThreads();
+        long bytesBefore = PITBenchmark.allocatedBytes(workers);
+        assumeTrue("this JVM can't measure allocation per thread", bytesBefore >= 0);
+        long messagesBefore = broker.delivered.get();
+        Thread.sleep(MEASURED);
+        long bytes = PITBenchmark.allocatedBytes(workers) - bytesBefore;
+        long messages = broker.delivered.get() - messagesBefore;
+
+        assertTrue("no trading was seen", messages > 0);
+        assertEquals("bytes allocated while trading " + messages + " messages", 0, bytes);
+    }
+}
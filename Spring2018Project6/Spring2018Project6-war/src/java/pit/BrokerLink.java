@@ -0,0 +1,63 @@
+package pit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A PITlink through the LocalBroker, used when the Players run in PlayerHost
+ * processes.  A Queue is subscribed to the first time it is read from; what
+ * arrives is held here until receive() asks for it.
+ */
+class BrokerLink implements PITlink, LocalBrokerClient.Listener {
+    private final LocalBrokerClient broker;
+    private final HashMap<String, LinkedBlockingQueue<Object>> inboxes = new HashMap<String, LinkedBlockingQueue<Object>>();
+
+    BrokerLink(int port) throws Exception {
+        broker = new LocalBrokerClient(port);
+        broker.start(this, "BrokerLink");
+    }
+
+    @Override
+    public void send(String queue, Serializable message) throws Exception {
+        broker.send(queue, message);
+    }
+
+    // The LocalBroker has no transactions, so these are just sent one after another
+    @Override
+    public void sendAll(String[] queues, Serializable[] messages) throws Exception {
+        for (int i = 0; i < queues.length; i++) {
+            broker.send(queues[i], messages[i]);
+        }
+    }
+
+    @Override
+    public Object receive(String queue, long timeout) throws Exception {
+        LinkedBlockingQueue<Object> inbox;
+        synchronized (inboxes) {
+            inbox = inboxes.get(queue);
+            if (inbox == null) {
+                inbox = new LinkedBlockingQueue<Object>();
+                inboxes.put(queue, inbox);
+                broker.subscribe(queue);
+            }
+        }
+        return (timeout > 0) ? inbox.poll(timeout, TimeUnit.MILLISECONDS) : inbox.poll();
+    }
+
+    @Override
+    public void onMessage(String queue, Object message, long sentAt) {
+        synchronized (inboxes) {
+            LinkedBlockingQueue<Object> inbox = inboxes.get(queue);
+            if (inbox != null) {
+                inbox.add(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        broker.close();
+    }
+}
@@ -0,0 +1,87 @@
+package pit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import javax.jms.*;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+/*
+ * A PITlink over the application server's JMS Queues.  One Connection and
+ * Session are used for everything sent and received until close(), except
+ * that sendAll() sends in a transacted Session of its own.
+ */
+class JmsLink implements PITlink {
+    private final Context ctx;
+    private final Connection con;
+    private final Session session;
+    private final HashMap<String, MessageProducer> writers = new HashMap<String, MessageProducer>();
+    private final HashMap<String, MessageConsumer> readers = new HashMap<String, MessageConsumer>();
+    private final HashMap<String, Queue> queues = new HashMap<String, Queue>();
+
+    JmsLink() throws Exception {
+        // Gather necessary JMS resources
+        ctx = new InitialContext();
+        ConnectionFactory cf = (ConnectionFactory) ctx.lookup("jms/myConnectionFactory");
+        con = cf.createConnection();
+        session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        con.start(); // don't forget to start the connection
+    }
+
+    @Override
+    public void send(String queue, Serializable message) throws Exception {
+        MessageProducer writer = writers.get(queue);
+        if (writer == null) {
+            writer = session.createProducer(lookUp(queue));
+            writers.put(queue, writer);
+        }
+        writer.send(session.createObjectMessage(message));
+    }
+
+    // Everything is sent in one transaction: the Players get all of the messages or none
+    @Override
+    public void sendAll(String[] queueNames, Serializable[] messages) throws Exception {
+        Session transacted = con.createSession(true, Session.SESSION_TRANSACTED);
+        try {
+            MessageProducer writer = transacted.createProducer(null);
+            for (int i = 0; i < queueNames.length; i++) {
+                writer.send(lookUp(queueNames[i]), transacted.createObjectMessage(messages[i]));
+            }
+            transacted.commit();
+        } catch (JMSException e) {
+            transacted.rollback();
+            throw e;
+        } finally {
+            transacted.close();
+        }
+    }
+
+    @Override
+    public Object receive(String queue, long timeout) throws Exception {
+        MessageConsumer reader = readers.get(queue);
+        if (reader == null) {
+            reader = session.createConsumer(lookUp(queue));
+            readers.put(queue, reader);
+        }
+        ObjectMessage m = (ObjectMessage) ((timeout > 0) ? reader.receive(timeout) : reader.receiveNoWait());
+        return (m == null) ? null : m.getObject();
+    }
+
+    private Queue lookUp(String queue) throws Exception {
+        Queue q = queues.get(queue);
+        if (q == null) {
+            q = (Queue) ctx.lookup(queue);
+            queues.put(queue, q);
+        }
+        return q;
+    }
+
+    @Override
+    public void close() {
+        try {
+            con.close();
+        } catch (JMSException e) {
+            System.out.println("Servlet JMS Exception thrown" + e);
+        }
+    }
+}
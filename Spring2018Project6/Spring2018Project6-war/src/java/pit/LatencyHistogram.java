@@ -0,0 +1,69 @@
+package pit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A cheap, thread safe histogram of latencies in ms.  Bucket 0 counts
+ * latencies of 0 ms, and bucket b counts latencies from 2^(b-1) up to
+ * 2^b - 1 ms, so recording is a few atomic adds and no allocation.
+ * Percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+    // 32 buckets covers everything up to about 24 days
+    private static final int BUCKETS = 32;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        sum.addAndGet(millis);
+        long m;
+        while (millis > (m = max.get()) && !max.compareAndSet(m, millis)) {
+            // retry until the max sticks
+        }
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long mean() {
+        long n = total.get();
+        return (n == 0) ? 0 : sum.get() / n;
+    }
+
+    // The upper bound (ms) of the bucket holding the given percentile (0-100)
+    public long percentile(double percent) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percent / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min((bucket == 0) ? 0 : (1L << bucket) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public String toJSON() {
+        return "{\"count\": " + count() + ", \"mean\": " + mean()
+                + ", \"p50\": " + percentile(50) + ", \"p90\": " + percentile(90)
+                + ", \"p99\": " + percentile(99) + ", \"max\": " + max() + "}";
+    }
+}
@@ -6,11 +6,40 @@ import java.io.Serializable;
  */
 public class Marker implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    /*
+     * Keys a Player adds to its snapshot state (the HashMap sent to PITsnapshot)
+     * alongside the commodity counts.  The timings are in ms since initiatedAt.
+     */
+    public static final String SNAPSHOT = "Snapshot";
+    public static final String FIRST_MARKER = "FirstMarker";
+    public static final String LAST_CHANNEL_CLOSED = "LastChannelClosed";
+    public static final String LAST_CHANNEL = "LastChannel";
+    public static final String REPORT_SENT = "ReportSent";
+    /*
+     * With channelCounts, for each other Player p: the trade messages sent to p
+     * and received from p before the state was recorded, and those recorded
+     * on the channel from p.  The key is the prefix followed by p.
+     */
+    public static final String SENT = "Sent.";
+    public static final String RECEIVED = "Received.";
+    public static final String RECORDED = "Recorded.";
+
     // source is the Player number from which the Marker is sent
     int source;
+    // snapshotId identifies the snapshot this Marker belongs to
+    int snapshotId;
+    // initiatedAt is when PITsnapshot started the snapshot (System.currentTimeMillis())
+    long initiatedAt;
 
     
     public Marker(int source) {
         this.source = source;
     }
+
+    public Marker(int source, int snapshotId, long initiatedAt) {
+        this.source = source;
+        this.snapshotId = snapshotId;
+        this.initiatedAt = initiatedAt;
+    }
 }
@@ -1,7 +1,6 @@
 package pit;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
 /* 
  * A representation of a new hand of commodities to be sent from
@@ -9,9 +8,34 @@ import java.util.ArrayList;
  */
 public class NewHand implements Serializable{
     private static final long serialVersionUID = 1L;
-    // A list of the new commodity cards
-    public ArrayList newHand = new ArrayList();
+    // The new commodity cards, as counts: counts[i] cards of commodities[i]
+    public String[] commodities = new String[0];
+    public int[] counts = new int[0];
     
     // The total number of players who will be trading
     public int numPlayers;
+
+    // How long, in milliseconds, to keep trading after this hand arrives (0 means until halted)
+    public long tradeDuration;
+
+    // The most TenderOffers a Player may send per second (0 means no limit)
+    public int tradeRate;
+
+    // The percentage of TenderOffers a Player accepts
+    public int acceptPercent = 80;
+
+    // The PlayerHost process each Player runs in, indexed by Player number.
+    // null when every Player runs in the application server.
+    public int[] placement;
+
+    // With a placement, the percentage of TenderOffers to send to Players in
+    // the same process (-1 means no preference)
+    public int localTradePercent = -1;
+
+    // Whether Players should count the trade messages on each channel and
+    // report the counts with their snapshots (for SnapshotVerifier)
+    public boolean channelCounts;
+
+    // Whether Players print every trade to the console
+    public boolean traceTrades = true;
 }
@@ -0,0 +1,21 @@
+package pit;
+
+import java.io.Serializable;
+
+/*
+ * How PITsnapshot talks to the Players: through JMS (JmsLink) when they are
+ * the PITplayer MDBs, or through the LocalBroker (BrokerLink) when they run
+ * in PlayerHost processes.  Queues are named by their JNDI names either way.
+ */
+interface PITlink {
+
+    void send(String queue, Serializable message) throws Exception;
+
+    // Send messages[i] to queues[i] for every i, all or none of them where the transport allows
+    void sendAll(String[] queues, Serializable[] messages) throws Exception;
+
+    // The next object on queue, waiting up to timeout ms (0 means do not wait).  null if none came.
+    Object receive(String queue, long timeout) throws Exception;
+
+    void close();
+}
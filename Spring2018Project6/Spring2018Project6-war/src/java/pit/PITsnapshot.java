@@ -3,12 +3,13 @@ package pit;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.jms.*;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -22,84 +23,341 @@ public class PITsnapshot extends HttpServlet {
     int numPlayers = 5;
     // Number of commodities that are initially given to each player
     int commoditiesPerPlayer = 10;
+    /*
+     * How the hands are dealt (see HandDealer).  "single" gives each Player
+     * commoditiesPerPlayer cards of its own commodity; "uniform", "zipf"
+     * (with zipfSkew) and "hot" (hotPercent of the cards from the first
+     * hotCommodities) deal them from numCommodities commodities, or one per
+     * Player if numCommodities is 0.
+     */
+    String dealDistribution = HandDealer.SINGLE;
+    int numCommodities = 0;
+    double zipfSkew = 1.0;
+    int hotCommodities = 1;
+    int hotPercent = 80;
+    // The seed hands are dealt with, so a deal can be repeated (0 means a new deal every time)
+    long dealSeed = 0;
     // Which PITplayer should be sent the snapshot marker
     int snapshotStarter = 3;
+    // How long, in seconds, the Players trade before stopping (0 means until halted)
+    int tradeDurationSeconds = 60;
+    // The most TenderOffers each Player may send per second (0 means no limit)
+    int tradeRate = 0;
+    // The percentage of TenderOffers that Players accept
+    int acceptPercent = 80;
+    // Whether Players print every trade (turn off for long or fast runs)
+    boolean traceTrades = true;
+    /*
+     * Number of PlayerHost processes to spread the Players over, connected
+     * through the LocalBroker on brokerPort.  0 means the Players are the
+     * PITplayer MDBs in this server.  When spread out, localTradePercent of
+     * each Player's TenderOffers go to Players in its own process.
+     */
+    int playerProcesses = 0;
+    int brokerPort = LocalBrokerClient.DEFAULT_PORT;
+    int localTradePercent = 80;
+    // File every deal and snapshot is appended to, for SnapshotVerifier (null means none).
+    // When set, Players also count and report the messages on each channel.
+    String snapshotLogFile = null;
+    SnapshotLog snapshotLog;
     // The list of commodities used in the simulation.
-    // Should be the same number as numPlayers.  Actual commodities added in init()
+    // numCommodities of them, or numPlayers.  Actual commodities added in init()
     LinkedList<String> commodities = new LinkedList<String>();
+    // Each snapshot gets a new id, carried on its Markers and in every Player's state
+    AtomicInteger nextSnapshotId = new AtomicInteger();
+    /*
+     * How long to wait for each Player's report is learned from its recent
+     * response times (see ResponseTimes).  Players that miss it are given
+     * extraWaits more of their timeouts.  This is only a longer wait: the
+     * Queue does not lose reports, so asking a Player again would just bring
+     * a second copy.  Any still missing leave a partial snapshot, holding the
+     * Players that did report.
+     */
+    int extraWaits = 1;
+    ResponseTimes responseTimes;
+    // The last snapshot finished, so a report that arrives after it is over can be timed
+    private int lastSnapshotId = -1;
+    private long lastInitiatedAt;
+
+    /*
+     * Latency histograms (ms) over all snapshots: the end to end time, its
+     * critical path breakdown (see SnapshotTiming), and for each Player the
+     * time from initiation until its report arrived.  GET PITsnapshot?latency
+     * returns them as JSON.
+     */
+    final LatencyHistogram totalLatency = new LatencyHistogram();
+    final LatencyHistogram markerLatency = new LatencyHistogram();
+    final LatencyHistogram channelLatency = new LatencyHistogram();
+    final LatencyHistogram reportLatency = new LatencyHistogram();
+    final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    LatencyHistogram[] playerLatency;
+    volatile SnapshotTiming lastTiming;
+
+    // The running servlet, so that PITsnapshotFeed can take snapshots
+    static volatile PITsnapshot current;
 
     @Override
     public void init() {
         // Add the commodities.  
-        // Each commodity should be unique and the number should equal numPlayers
+        // Each commodity should be unique; past the metals they are just numbered
         commodities.add("Zinc");
         commodities.add("Tin");
         commodities.add("Lead");
         commodities.add("Nickel");
         commodities.add("Cobalt");
+        int wanted = (numCommodities > 0) ? numCommodities : numPlayers;
+        while (commodities.size() > wanted) {
+            commodities.removeLast();
+        }
+        while (commodities.size() < wanted) {
+            commodities.add("Commodity" + commodities.size());
+        }
+
+        responseTimes = new ResponseTimes(numPlayers);
+        playerLatency = new LatencyHistogram[numPlayers];
+        for (int player = 0; player < numPlayers; player++) {
+            playerLatency[player] = new LatencyHistogram();
+        }
+        if (snapshotLogFile != null) {
+            try {
+                snapshotLog = new SnapshotLog(snapshotLogFile);
+            } catch (IOException e) {
+                System.out.println("Servlet could not open snapshot log " + snapshotLogFile + ": " + e);
+            }
+        }
+        current = this;
+    }
+
+    @Override
+    public void destroy() {
+        PITsnapshotFeed.shutdown();
+        if (snapshotLog != null) {
+            snapshotLog.close();
+        }
+        current = null;
     }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        if (request.getParameter("latency") != null) {
+            doGetLatency(response);
+            return;
+        }
         response.setContentType("text/html;charset=UTF-8");
         PrintWriter out = response.getWriter();
 
         try {
-            // Gather necessary JMS resources
-            Context ctx = new InitialContext();
-            ConnectionFactory cf = (ConnectionFactory) ctx.lookup("jms/myConnectionFactory");
-            Connection con = cf.createConnection();
-            con.start(); // don't forget to start the connection
-            QueueSession session = (QueueSession) con.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            SnapshotResult result = takeSnapshot();
+            if (result.failed()) {
+                out.print("Snapshot Failed");
+                return;
+            }
+            request.setAttribute("commodity", commodities);
+            request.setAttribute("state", result.state);
+            request.setAttribute("timing", result.timing);
+            if (result.partial()) {
+                request.setAttribute("missing", Arrays.toString(result.missing));
+            }
 
-            // The PITsnapshot Queue is used for responses from the Players to this serverlet
-            Queue q = (Queue) ctx.lookup("jms/PITsnapshot");
-            MessageConsumer reader = session.createConsumer(q);
+            request.getRequestDispatcher("snapshotResult.jsp").forward(request, response);
 
+        } catch (Exception e) {
+            System.out.println("Servlet threw exception " + e);
+            e.printStackTrace();
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Take one snapshot and hand the result to any PITsnapshotFeed clients.
+     * Snapshots share the PITsnapshot Queue, so only one runs at a time.
+     */
+    synchronized SnapshotResult takeSnapshot() throws Exception {
+        PITlink link = openLink();
+        int snapshotId = -1;
+        long initiatedAt = 0;
+        try {
             /*
              * Throw out old PITsnapshot messages that may have been left from past
              * snapshots that did not complete (because of some error).
+             * The PITsnapshot Queue is used for responses from the Players to this serverlet
              */
-            ObjectMessage m = null;
-            while ((m = (ObjectMessage) reader.receiveNoWait()) != null) {
+            Object orphan;
+            while ((orphan = link.receive("jms/PITsnapshot", 0)) != null) {
                 System.out.println("Servlet found an orphaned PITsnapshot message");
+                lateReport((HashMap) orphan);
             }
 
             // Initialize the snapshot by sending a marker to a Player
-            sendInitSnapshot();
+            snapshotId = nextSnapshotId.incrementAndGet();
+            initiatedAt = System.currentTimeMillis();
+            sendInitSnapshot(link, snapshotId, initiatedAt);
 
             /*
              * Receive the snapshot messages from all Players.
-             * Each snapshot is a HahsMap.  Put them into an array of HashMaps             * 
+             * Each snapshot is a HashMap.  Put them into an array of HashMaps,
+             * by Player, and note when each arrived.  Wait longer for the
+             * Players that are late.
              */
+            HashMap[] reports = new HashMap[numPlayers];
+            long[] reportedAt = new long[numPlayers];
+            int[] missing = allPlayers();
+            receiveReports(link, snapshotId, initiatedAt, initiatedAt, missing, reports, reportedAt);
+            missing = missingPlayers(reports);
+            for (int wait = 0; wait < extraWaits && missing.length > 0; wait++) {
+                System.out.println("Servlet: players " + Arrays.toString(missing) + " have not reported snapshot "
+                        + snapshotId + ", waiting longer");
+                receiveReports(link, snapshotId, initiatedAt, System.currentTimeMillis(), missing, reports, reportedAt);
+                missing = missingPlayers(reports);
+            }
+            if (missing.length == numPlayers) {
+                System.out.println("Servlet: No players reported snapshot " + snapshotId);
+                SnapshotResult failed = new SnapshotResult(snapshotId, null, null, missing);
+                PITsnapshotFeed.publish(failed, commodities);
+                return failed;
+            }
+
             LinkedList<HashMap> state = new LinkedList<HashMap>();
-            int stateResponses = 0;
-            int failures = 0;
-            while (stateResponses < numPlayers) {
-                if ((m = (ObjectMessage) reader.receive(1000)) == null) {
-                    if (++failures > 5) {
-                        System.out.println("Servlet: Not all players reported, giving up after " + stateResponses);
-                        out.print("Snapshot Failed");
-                        con.close();
-                        return;
-                    }
-                    continue;
+            LinkedList<Long> receivedAt = new LinkedList<Long>();
+            for (int player = 0; player < numPlayers; player++) {
+                if (reports[player] != null) {
+                    state.add(reports[player]);
+                    receivedAt.add(reportedAt[player]);
                 }
-                stateResponses++;
-                state.add((HashMap) m.getObject());
             }
-            request.setAttribute("commodity", commodities);
-            request.setAttribute("state", state);
+            SnapshotTiming timing = recordTiming(snapshotId, state, receivedAt);
+            if (missing.length > 0) {
+                System.out.println("Servlet " + timing + ", partial: players " + Arrays.toString(missing) + " did not report");
+            } else {
+                System.out.println("Servlet " + timing);
+            }
 
+            SnapshotResult result = new SnapshotResult(snapshotId, state, timing, missing);
+            if (snapshotLog != null) {
+                snapshotLog.snapshot(result);
+            }
+            PITsnapshotFeed.publish(result, commodities);
+            return result;
+        } finally {
+            lastSnapshotId = snapshotId;
+            lastInitiatedAt = initiatedAt;
             // Close the connection
-            con.close();
+            link.close();
+        }
+    }
 
-            request.getRequestDispatcher("snapshotResult.jsp").forward(request, response);
+    /*
+     * Receive reports for snapshotId until every Player in waitFor has
+     * reported, or is past its timeout from waitFrom.  Reports are kept in
+     * reports by Player, with when they arrived (ms since initiatedAt).
+     */
+    private void receiveReports(PITlink link, int snapshotId, long initiatedAt, long waitFrom, int[] waitFor,
+            HashMap[] reports, long[] reportedAt) throws Exception {
+        while (true) {
+            long deadline = 0;
+            for (int player : waitFor) {
+                if (reports[player] == null) {
+                    deadline = Math.max(deadline, waitFrom + responseTimes.timeout(player));
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (deadline == 0 || now >= deadline) {
+                return;
+            }
+            Object m = link.receive("jms/PITsnapshot", deadline - now);
+            if (m == null) {
+                continue;
+            }
+            HashMap playerState = (HashMap) m;
+            if (SnapshotTiming.timing(playerState, Marker.SNAPSHOT) != snapshotId) {
+                System.out.println("Servlet found a PITsnapshot message from an earlier snapshot");
+                lateReport(playerState);
+                continue;
+            }
+            int player = SnapshotTiming.timing(playerState, "Player");
+            if (player < 0 || player >= numPlayers || reports[player] != null) {
+                System.out.println("Servlet found an extra report from player " + player);
+                continue;
+            }
+            long arrived = System.currentTimeMillis();
+            reports[player] = playerState;
+            reportedAt[player] = arrived - initiatedAt;
+            responseTimes.reported(player, arrived - initiatedAt);
+        }
+    }
 
-        } catch (Exception e) {
-            System.out.println("Servlet threw exception " + e);
-            e.printStackTrace();
+    /*
+     * A report that missed the last snapshot still shows how long its Player
+     * takes: at least until we found it, timed from the start of the snapshot
+     * like any other report.  Reports from older snapshots are just dropped.
+     */
+    private void lateReport(HashMap playerState) {
+        if (SnapshotTiming.timing(playerState, Marker.SNAPSHOT) == lastSnapshotId) {
+            responseTimes.reported(SnapshotTiming.timing(playerState, "Player"),
+                    System.currentTimeMillis() - lastInitiatedAt);
+        }
+    }
+
+    private int[] allPlayers() {
+        int[] players = new int[numPlayers];
+        for (int player = 0; player < numPlayers; player++) {
+            players[player] = player;
+        }
+        return players;
+    }
+
+    private static int[] missingPlayers(HashMap[] reports) {
+        int count = 0;
+        for (HashMap report : reports) {
+            if (report == null) count++;
+        }
+        int[] missing = new int[count];
+        count = 0;
+        for (int player = 0; player < reports.length; player++) {
+            if (reports[player] == null) missing[count++] = player;
+        }
+        return missing;
+    }
+
+    // Fold one snapshot's timings into the latency histograms
+    private SnapshotTiming recordTiming(int snapshotId, LinkedList<HashMap> state, LinkedList<Long> receivedAt) {
+        SnapshotTiming timing = new SnapshotTiming(snapshotId, state, receivedAt);
+        totalLatency.record(timing.total);
+        markerLatency.record(timing.markerPropagation);
+        channelLatency.record(timing.channelRecording);
+        reportLatency.record(timing.reportPreparation);
+        deliveryLatency.record(timing.reportDelivery);
+        for (int i = 0; i < state.size(); i++) {
+            int player = SnapshotTiming.timing(state.get(i), "Player");
+            if (player >= 0 && player < playerLatency.length) {
+                playerLatency[player].record(receivedAt.get(i));
+            }
+        }
+        lastTiming = timing;
+        return timing;
+    }
+
+    // Report the latency histograms, and the most recent snapshot's breakdown, as JSON
+    private void doGetLatency(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        try {
+            SnapshotTiming last = lastTiming;
+            out.print("{\"total\": " + totalLatency.toJSON());
+            out.print(", \"markerPropagation\": " + markerLatency.toJSON());
+            out.print(", \"channelRecording\": " + channelLatency.toJSON());
+            out.print(", \"reportPreparation\": " + reportLatency.toJSON());
+            out.print(", \"reportDelivery\": " + deliveryLatency.toJSON());
+            out.print(", \"players\": [");
+            for (int player = 0; player < playerLatency.length; player++) {
+                if (player > 0) out.print(",");
+                out.print(playerLatency[player].toJSON());
+            }
+            out.print("], \"timeouts\": " + responseTimes.toJSON());
+            out.print(", \"last\": " + ((last == null) ? "null" : last.toJSON()));
+            out.println("}");
         } finally {
             out.close();
         }
@@ -109,27 +367,17 @@ public class PITsnapshot extends HttpServlet {
      * Initiate the snapshot by sending a Marker message to one of the Players (Player0)
      * Any Player could have been used to initiate the snapshot.
      */
-    private void sendInitSnapshot() {
+    private void sendInitSnapshot(PITlink link, int snapshotId, long initiatedAt) {
         try {
-            // Gather necessary JMS resources
-            Context ctx = new InitialContext();
-            ConnectionFactory cf = (ConnectionFactory) ctx.lookup("jms/myConnectionFactory");
-            Queue q = (Queue) ctx.lookup("jms/PITplayer"+snapshotStarter);
-            Connection con = cf.createConnection();
-            Session session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer writer = session.createProducer(q);
-
             /*
              * As part of the snapshot algorithm, players need to record 
              * what other Players they receive markers from.
              * "-1" indicates to the PITplayer0 that this marker is coming from
              * the monitor, not another Player.
              */
-            Marker m = new Marker(-1);
-            ObjectMessage msg = session.createObjectMessage(m);
+            Marker m = new Marker(-1, snapshotId, initiatedAt);
             System.out.println("Servlet Initiating Snapshot");
-            writer.send(msg);
-            con.close();
+            link.send("jms/PITplayer" + snapshotStarter, m);
         } catch (JMSException e) {
             System.out.println("Servlet JMS Exception thrown" + e);
         } catch (Throwable e) {
@@ -138,20 +386,52 @@ public class PITsnapshot extends HttpServlet {
         }
     }
 
+    // Connect to the Players, through JMS or the LocalBroker
+    private PITlink openLink() throws Exception {
+        return (playerProcesses > 0) ? new BrokerLink(brokerPort) : new JmsLink();
+    }
+
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         response.setContentType("application/json;charset=UTF-8");
 
-        resetAllPlayers(numPlayers, Reset.HALT);
-        resetAllPlayers(numPlayers, Reset.CLEAR);
         String commoditiesString = "";
-        int playerNumber = 0;
-        for (String commodity: commodities) {
-            sendInit(playerNumber, numPlayers, commodity);
-            if (playerNumber > 0) commoditiesString += ",";
-            commoditiesString += ("\"" + commodity + "\"");
-            playerNumber++;
+        PITlink link = null;
+        try {
+            link = openLink();
+            int[] placement = placePlayers(link);
+            resetAllPlayers(link, numPlayers, Reset.HALT);
+            resetAllPlayers(link, numPlayers, Reset.CLEAR);
+
+            // Deal every hand, and deliver them all together
+            String[] names = commodities.toArray(new String[commodities.size()]);
+            int[][] hands = dealer().deal(numPlayers, names.length, commoditiesPerPlayer);
+            if (snapshotLog != null) {
+                LinkedHashMap<String, Integer> dealt = new LinkedHashMap<String, Integer>();
+                int[] totals = HandDealer.totals(hands);
+                for (int c = 0; c < names.length; c++) {
+                    dealt.put(names[c], totals[c]);
+                }
+                snapshotLog.deal(numPlayers, dealt);
+            }
+            String[] queues = new String[numPlayers];
+            NewHand[] newHands = new NewHand[numPlayers];
+            for (int player = 0; player < numPlayers; player++) {
+                queues[player] = "jms/PITplayer" + player;
+                newHands[player] = newHand(names, hands[player], placement);
+            }
+            System.out.println("Servlet sending " + dealDistribution + " newhands to " + numPlayers + " players");
+            link.sendAll(queues, newHands);
+
+            for (int c = 0; c < names.length; c++) {
+                if (c > 0) commoditiesString += ",";
+                commoditiesString += ("\"" + names[c] + "\"");
+            }
+        } catch (Exception e) {
+            System.out.println("Servlet threw exception " + e);
+        } finally {
+            if (link != null) link.close();
         }
 
         PrintWriter out = response.getWriter();
@@ -167,8 +447,13 @@ public class PITsnapshot extends HttpServlet {
             throws ServletException, IOException {
         response.setContentType("application/json;charset=UTF-8");
 
-        resetAllPlayers(numPlayers, Reset.HALT);
-
+        try {
+            PITlink link = openLink();
+            resetAllPlayers(link, numPlayers, Reset.HALT);
+            link.close();
+        } catch (Exception e) {
+            System.out.println("Servlet threw exception " + e);
+        }
 
         PrintWriter out = response.getWriter();
         try {
@@ -178,45 +463,76 @@ public class PITsnapshot extends HttpServlet {
         }
     }
 
-    private void sendInit(int playerNumber, int numPlayers, String commodity) {
-
-        try {
-            // Gather necessary JMS resources
-            Context ctx = new InitialContext();
-            ConnectionFactory cf = (ConnectionFactory) ctx.lookup("jms/myConnectionFactory");
-            Queue q = (Queue) ctx.lookup("jms/PITplayer" + playerNumber);
-            Connection con = cf.createConnection();
-            Session session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer writer = session.createProducer(q);
-
-            // Create a new hand to send to the Player
-            NewHand hand = new NewHand();
-            hand.numPlayers = numPlayers;
-            for (int i = 0; i < commoditiesPerPlayer; i++) {
-                hand.newHand.add(commodity); // Give each player commoditiesPerPlayer of the same commodity
+    /*
+     * With playerProcesses set, split the Players into that many contiguous
+     * blocks and send each PlayerHost a Placement naming its block.  Returns
+     * the process of each Player, or null when the Players are the MDBs.
+     */
+    private int[] placePlayers(PITlink link) throws Exception {
+        if (playerProcesses <= 0) {
+            return null;
+        }
+        int[] placement = new int[numPlayers];
+        for (int process = 0; process < playerProcesses; process++) {
+            int first = process * numPlayers / playerProcesses;
+            int last = (process + 1) * numPlayers / playerProcesses;
+            Placement p = new Placement();
+            p.process = process;
+            p.players = new int[last - first];
+            for (int player = first; player < last; player++) {
+                placement[player] = process;
+                p.players[player - first] = player;
             }
+            System.out.println("Servlet placing players " + first + " to " + (last - 1) + " in PlayerHost" + process);
+            link.send(LocalBrokerClient.hostQueue(process), p);
+        }
+        return placement;
+    }
 
-            // Send the hand to the Player
-            ObjectMessage msg = session.createObjectMessage(hand);
-            System.out.println("Servlet sending newhand to " + playerNumber);
-            writer.send(msg);
-            con.close();
-        } catch (JMSException e) {
-            System.out.println("Servlet JMS Exception thrown" + e);
-        } catch (Throwable e) {
-            System.out.println("Servlet Throwable thrown" + e);
+    private HandDealer dealer() {
+        HandDealer dealer = new HandDealer();
+        dealer.distribution = dealDistribution;
+        dealer.skew = zipfSkew;
+        dealer.hotCommodities = hotCommodities;
+        dealer.hotPercent = hotPercent;
+        dealer.seed = (dealSeed != 0) ? dealSeed : System.nanoTime();
+        System.out.println("Servlet dealing " + dealDistribution + " hands with seed " + dealer.seed);
+        return dealer;
+    }
+
+    // Create a new hand to send to a Player: counts[c] cards of commodities[c]
+    private NewHand newHand(String[] commodities, int[] counts, int[] placement) {
+        NewHand hand = new NewHand();
+        hand.numPlayers = numPlayers;
+        hand.tradeDuration = tradeDurationSeconds * 1000L;
+        hand.tradeRate = tradeRate;
+        hand.acceptPercent = acceptPercent;
+        hand.placement = placement;
+        hand.localTradePercent = (placement == null) ? -1 : localTradePercent;
+        hand.channelCounts = (snapshotLog != null);
+        hand.traceTrades = traceTrades;
+
+        // Only the commodities the Player actually gets
+        int held = 0;
+        for (int count : counts) {
+            if (count > 0) held++;
+        }
+        hand.commodities = new String[held];
+        hand.counts = new int[held];
+        held = 0;
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] > 0) {
+                hand.commodities[held] = commodities[c];
+                hand.counts[held] = counts[c];
+                held++;
+            }
         }
+        return hand;
     }
 
-    private void resetAllPlayers(int numPlayers, int action) {
+    private void resetAllPlayers(PITlink link, int numPlayers, int action) {
         String actionString = ((action == Reset.HALT) ? "HALT" : "CLEAR");
         try {
-            // Gather necessary JMS resources
-            Context ctx = new InitialContext();
-            ConnectionFactory cf = (ConnectionFactory) ctx.lookup("jms/myConnectionFactory");
-            Connection con = cf.createConnection();
-            Session session = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
-
             /*
              * For each player, send a Reset message, and wait if its reply.
              * We need to wait for a reply, for the NewHands cannot be distributed
@@ -224,40 +540,27 @@ public class PITsnapshot extends HttpServlet {
              */
             for (int player = 0; player < numPlayers; player++) {
                 System.out.println("Servlet sending Reset "+actionString+" to PITplayer" + player);
-                Queue q = (Queue) ctx.lookup("jms/PITplayer" + player);
-                MessageProducer writer = session.createProducer(q);
 
                 /*
                  * A Reset is an object passed back and forth to initiate and 
                  * acknowledge an reset operation
                  */
-                Reset reset = new Reset(action);
-                ObjectMessage resetMessage = session.createObjectMessage(reset);
-
-                writer.send(resetMessage);
+                link.send("jms/PITplayer" + player, new Reset(action));
 
                 // Read the PITmonitor Queue for the Reset acknowledgement
-                Queue rq = (Queue) ctx.lookup("jms/PITmonitor");
-                MessageConsumer reader = session.createConsumer(rq);
-
-                // Always remember to start a connection when receiving from it!
-                con.start();
-
                 // Give a very long wait.  It should not take that long, but fail if it does not come back by then
-                ObjectMessage m = (ObjectMessage) reader.receive(10000);
+                Object m = link.receive("jms/PITmonitor", 10000);
 
                 if (m == null) {
                     System.out.println("Servlet ERROR:  Receive of reset acknowledgement time out from PITplayer" + player);
                     throw new Throwable("ERROR:  Receive of reset acknowledgement time out from PITplayer" + player);
                 }
-                if (!(((Reset) m.getObject()) instanceof Reset)) {
+                if (!(m instanceof Reset)) {
                     System.out.println("Servlet ERROR:  Bad reset acknowledgement back from PITplayer" + player);
                     throw new Throwable("ERROR:  Bad reset acknowledgement back from PITplayer" + player);
                 }
                 System.out.println("Servlet Reset "+actionString+" from PITplayer" + player + " ACKNOWLEDGED");
             }
-            session.close();
-            con.close();
         } catch (JMSException e) {
             System.out.println("Servlet JMS Exception thrown" + e);
         } catch (Throwable e) {
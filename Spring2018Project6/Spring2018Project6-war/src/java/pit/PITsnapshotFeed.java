@@ -0,0 +1,258 @@
+package pit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+/*
+ * Pushes snapshot results to browsers as they complete, in place of polling
+ * GET PITsnapshot.  Clients send "start <ms>" to have snapshots taken every
+ * <ms> and "stop" to end them.  Snapshots are taken while any client wants
+ * them, at the shortest interval asked for, but never more often than every
+ * MIN_INTERVAL ms.  Each snapshot is pushed as a small JSON
+ * delta holding only the Players whose counts changed since the last push:
+ *   {"snapshot": 7, "rows": {"3": [1,0,2,4,3]}, "sums": [10,10,10,10,10], "timing": {...}}
+ * Counts are in the order of "commodities", which is sent when a client
+ * connects and whenever it changes.  A partial snapshot also lists the
+ * Players that did not report (their rows are left as they were, and are
+ * not in the sums):
+ *   {"snapshot": 8, "rows": {...}, "sums": [...], "missing": [1,4], "timing": {...}}
+ * A failed snapshot is pushed as
+ *   {"snapshot": 9, "failed": true}
+ */
+@ServerEndpoint("/PITsnapshotFeed")
+public class PITsnapshotFeed {
+
+    private static final Set<Session> sessions = new CopyOnWriteArraySet<Session>();
+
+    // What was last pushed, so that only changes need to be sent
+    private static int lastSnapshot = 0;
+    private static LinkedList<String> lastCommodities = new LinkedList<String>();
+    private static final HashMap<Integer, int[]> lastRows = new HashMap<Integer, int[]>();
+
+    // Snapshots are never taken more often than this, whatever clients ask for
+    static final long MIN_INTERVAL = 250;
+
+    // The interval each client has asked for, while it wants snapshots
+    private static final HashMap<Session, Long> intervals = new HashMap<Session, Long>();
+    // Takes snapshots every driverInterval while any client has asked for them
+    private static ScheduledExecutorService executor;
+    private static boolean ownExecutor;
+    private static ScheduledFuture<?> driver;
+    private static long driverInterval;
+
+    @OnOpen
+    public void onOpen(Session session) {
+        sessions.add(session);
+        session.getAsyncRemote().sendText(fullState());
+    }
+
+    @OnMessage
+    public void onMessage(String command, Session session) {
+        if (command.startsWith("start")) {
+            try {
+                startSnapshots(session, Long.parseLong(command.substring(5).trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("PITsnapshotFeed: bad command " + command);
+            }
+        } else if (command.equals("stop")) {
+            stopSnapshots(session);
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        sessions.remove(session);
+        stopSnapshots(session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable t) {
+        System.out.println("PITsnapshotFeed error: " + t);
+        onClose(session);
+    }
+
+    static synchronized void startSnapshots(Session session, long interval) {
+        intervals.put(session, Math.max(MIN_INTERVAL, interval));
+        reschedule();
+    }
+
+    static synchronized void stopSnapshots(Session session) {
+        if (intervals.remove(session) != null) {
+            reschedule();
+        }
+    }
+
+    // Run the driver at the shortest interval any client wants, or stop it if none does
+    private static void reschedule() {
+        long interval = Long.MAX_VALUE;
+        for (long wanted : intervals.values()) {
+            interval = Math.min(interval, wanted);
+        }
+        if (driver != null && interval == driverInterval) {
+            return;
+        }
+        boolean running = (driver != null);
+        if (running) {
+            // A snapshot under way is left to finish
+            driver.cancel(false);
+            driver = null;
+        }
+        if (intervals.isEmpty()) {
+            if (running) {
+                System.out.println("PITsnapshotFeed stopped taking snapshots");
+            }
+            return;
+        }
+        System.out.println("PITsnapshotFeed taking a snapshot every " + interval + "ms");
+        driverInterval = interval;
+        driver = executor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                PITsnapshot servlet = PITsnapshot.current;
+                if (servlet == null) {
+                    return;
+                }
+                try {
+                    servlet.takeSnapshot();
+                } catch (Exception e) {
+                    System.out.println("PITsnapshotFeed snapshot threw exception " + e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * The container's default ManagedScheduledExecutorService, so the thread
+     * taking snapshots is one the container knows about and stops on
+     * undeploy.  Outside a container, a daemon thread of our own.
+     */
+    private static ScheduledExecutorService executor() {
+        if (executor == null) {
+            try {
+                executor = (ManagedScheduledExecutorService) new InitialContext().lookup("java:comp/DefaultManagedScheduledExecutorService");
+            } catch (NamingException e) {
+                System.out.println("PITsnapshotFeed found no managed executor, using its own thread: " + e);
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "PITsnapshotFeed");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                ownExecutor = true;
+            }
+        }
+        return executor;
+    }
+
+    // The container shuts down its own executor; ours is ours to stop
+    static synchronized void shutdown() {
+        intervals.clear();
+        reschedule();
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+        executor = null;
+        ownExecutor = false;
+        sessions.clear();
+    }
+
+    // Called by PITsnapshot whenever a snapshot completes or fails
+    static synchronized void publish(SnapshotResult result, LinkedList<String> commodities) {
+        lastSnapshot = result.snapshotId;
+        String message;
+        if (result.failed()) {
+            message = "{\"snapshot\": " + result.snapshotId + ", \"failed\": true}";
+        } else {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"snapshot\": ").append(result.snapshotId);
+            if (!commodities.equals(lastCommodities)) {
+                lastCommodities = new LinkedList<String>(commodities);
+                lastRows.clear();
+                json.append(", \"commodities\": ").append(commoditiesJSON());
+            }
+            json.append(", \"rows\": {");
+            int[] sums = new int[commodities.size()];
+            boolean first = true;
+            for (HashMap h : result.state) {
+                int player = SnapshotTiming.timing(h, "Player");
+                int[] row = new int[commodities.size()];
+                int c = 0;
+                for (String commodity : commodities) {
+                    row[c] = SnapshotTiming.timing(h, commodity);
+                    sums[c] += row[c];
+                    c++;
+                }
+                if (!Arrays.equals(row, lastRows.get(player))) {
+                    lastRows.put(player, row);
+                    if (!first) json.append(", ");
+                    json.append(rowJSON(player, row));
+                    first = false;
+                }
+            }
+            json.append("}, \"sums\": ").append(Arrays.toString(sums));
+            if (result.partial()) {
+                json.append(", \"missing\": ").append(Arrays.toString(result.missing));
+            }
+            json.append(", \"timing\": ").append(result.timing.toJSON()).append("}");
+            message = json.toString();
+        }
+        for (Session session : sessions) {
+            if (session.isOpen()) {
+                session.getAsyncRemote().sendText(message);
+            }
+        }
+    }
+
+    // Everything pushed so far, for a newly connected client
+    private static synchronized String fullState() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"snapshot\": ").append(lastSnapshot);
+        json.append(", \"commodities\": ").append(commoditiesJSON());
+        json.append(", \"rows\": {");
+        int[] sums = new int[lastCommodities.size()];
+        boolean first = true;
+        for (Integer player : lastRows.keySet()) {
+            int[] row = lastRows.get(player);
+            for (int c = 0; c < sums.length; c++) {
+                sums[c] += row[c];
+            }
+            if (!first) json.append(", ");
+            json.append(rowJSON(player, row));
+            first = false;
+        }
+        json.append("}, \"sums\": ").append(Arrays.toString(sums)).append("}");
+        return json.toString();
+    }
+
+    private static String commoditiesJSON() {
+        StringBuilder json = new StringBuilder("[");
+        for (String commodity : lastCommodities) {
+            if (json.length() > 1) json.append(",");
+            json.append("\"").append(commodity).append("\"");
+        }
+        return json.append("]").toString();
+    }
+
+    private static String rowJSON(int player, int[] row) {
+        return "\"" + player + "\": " + Arrays.toString(row);
+    }
+}
@@ -0,0 +1,60 @@
+package pit;
+
+/*
+ * How long each Player has recently taken to report its snapshot state, and
+ * from that how long PITsnapshot waits for it.  Like a TCP retransmission
+ * timer, the timeout is the smoothed response time plus four times its
+ * smoothed deviation, kept between MIN_TIMEOUT and MAX_TIMEOUT.  Missing
+ * the timeout does not change it, so a Player that has gone away only costs
+ * its usual wait; but a report that turns up late is still counted, timed
+ * from the start of its snapshot to when PITsnapshot finds it, so a Player
+ * that is just slow soon gets a longer timeout.  All times are in ms.
+ */
+class ResponseTimes {
+    static final long MIN_TIMEOUT = 100;
+    static final long MAX_TIMEOUT = 5000;
+    // Until a Player has reported, wait as long as PITsnapshot always used to
+    static final long FIRST_TIMEOUT = 1000;
+
+    private final double[] mean;
+    private final double[] deviation;
+    private final long[] timeout;
+
+    ResponseTimes(int numPlayers) {
+        mean = new double[numPlayers];
+        deviation = new double[numPlayers];
+        timeout = new long[numPlayers];
+        for (int player = 0; player < numPlayers; player++) {
+            mean[player] = -1;
+            timeout[player] = FIRST_TIMEOUT;
+        }
+    }
+
+    synchronized long timeout(int player) {
+        return (player >= 0 && player < timeout.length) ? timeout[player] : FIRST_TIMEOUT;
+    }
+
+    // The Player reported ms after it was asked
+    synchronized void reported(int player, long ms) {
+        if (player < 0 || player >= timeout.length) {
+            return;
+        }
+        if (mean[player] < 0) {
+            mean[player] = ms;
+            deviation[player] = ms / 2.0;
+        } else {
+            deviation[player] = 0.75 * deviation[player] + 0.25 * Math.abs(ms - mean[player]);
+            mean[player] = 0.875 * mean[player] + 0.125 * ms;
+        }
+        timeout[player] = Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, (long) (mean[player] + 4 * deviation[player])));
+    }
+
+    synchronized String toJSON() {
+        StringBuilder json = new StringBuilder("[");
+        for (int player = 0; player < timeout.length; player++) {
+            if (player > 0) json.append(",");
+            json.append(timeout[player]);
+        }
+        return json.append("]").toString();
+    }
+}
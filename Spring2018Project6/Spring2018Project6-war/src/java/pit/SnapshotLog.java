@@ -0,0 +1,62 @@
+package pit;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Appends every deal and snapshot to a text file for SnapshotVerifier.
+ * A deal line gives the number of Players and how many of each commodity
+ * were dealt; each following state line is one Player's snapshot report.
+ * A partial snapshot starts with a line naming the Players that did not
+ * report:
+ *
+ *   deal players=5 Zinc=10 Tin=10 Lead=10 Nickel=10 Cobalt=10
+ *   state Snapshot=1 Player=3 Zinc=2 Tin=4 ... Sent.0=12 Received.0=11 Recorded.0=1 ...
+ *   partial Snapshot=2 missing=1,4
+ */
+class SnapshotLog {
+    private final PrintWriter out;
+
+    SnapshotLog(String path) throws IOException {
+        out = new PrintWriter(new BufferedWriter(new FileWriter(path, true)));
+    }
+
+    synchronized void deal(int numPlayers, Map<String, Integer> dealt) {
+        out.print("deal players=" + numPlayers);
+        for (Map.Entry<String, Integer> entry : dealt.entrySet()) {
+            out.print(" " + entry.getKey() + "=" + entry.getValue());
+        }
+        out.println();
+        out.flush();
+    }
+
+    synchronized void snapshot(SnapshotResult result) {
+        if (result.failed()) {
+            return;
+        }
+        if (result.partial()) {
+            out.print("partial " + Marker.SNAPSHOT + "=" + result.snapshotId + " missing=");
+            for (int i = 0; i < result.missing.length; i++) {
+                out.print(((i > 0) ? "," : "") + result.missing[i]);
+            }
+            out.println();
+        }
+        for (HashMap state : result.state) {
+            out.print("state");
+            for (Object entry : state.entrySet()) {
+                Map.Entry e = (Map.Entry) entry;
+                out.print(" " + e.getKey() + "=" + e.getValue());
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    synchronized void close() {
+        out.close();
+    }
+}
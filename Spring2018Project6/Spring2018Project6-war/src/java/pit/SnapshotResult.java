@@ -0,0 +1,32 @@
+package pit;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/*
+ * The outcome of one snapshot: the state reported by each Player and the
+ * timing breakdown.  state is null if the snapshot failed.  A partial
+ * snapshot has the state of the Players that reported; missing lists the
+ * ones that did not, even after PITsnapshot waited longer for them.
+ */
+public class SnapshotResult {
+    public final int snapshotId;
+    public final LinkedList<HashMap> state;
+    public final SnapshotTiming timing;
+    public final int[] missing;
+
+    public SnapshotResult(int snapshotId, LinkedList<HashMap> state, SnapshotTiming timing, int[] missing) {
+        this.snapshotId = snapshotId;
+        this.state = state;
+        this.timing = timing;
+        this.missing = missing;
+    }
+
+    public boolean failed() {
+        return state == null;
+    }
+
+    public boolean partial() {
+        return !failed() && missing.length > 0;
+    }
+}
@@ -0,0 +1,64 @@
+package pit;
+
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * The critical path of one snapshot, worked out from the timings each Player
+ * adds to its state (see Marker) and the time each report reached PITsnapshot.
+ * The critical Player is the one whose report arrived last; its time is split
+ * into marker propagation (initiation to its first Marker), channel recording
+ * (first Marker to last channel closed), report preparation (last channel
+ * closed to report sent) and report delivery (report sent to received).
+ * All times are in ms.
+ */
+public class SnapshotTiming {
+    public int snapshotId;
+    public long total;
+    public int criticalPlayer = -1;
+    // The channel (sending Player) whose Marker reached the critical Player last
+    public int criticalChannel = -1;
+    public long markerPropagation;
+    public long channelRecording;
+    public long reportPreparation;
+    public long reportDelivery;
+
+    // receivedAt.get(i) is the offset from initiation at which state.get(i) arrived
+    public SnapshotTiming(int snapshotId, List<HashMap> state, List<Long> receivedAt) {
+        this.snapshotId = snapshotId;
+        for (int i = 0; i < state.size(); i++) {
+            HashMap h = state.get(i);
+            long received = receivedAt.get(i);
+            if (received < total || !h.containsKey(Marker.REPORT_SENT)) {
+                continue;
+            }
+            total = received;
+            criticalPlayer = timing(h, "Player");
+            criticalChannel = timing(h, Marker.LAST_CHANNEL);
+            markerPropagation = timing(h, Marker.FIRST_MARKER);
+            channelRecording = timing(h, Marker.LAST_CHANNEL_CLOSED) - markerPropagation;
+            reportPreparation = timing(h, Marker.REPORT_SENT) - timing(h, Marker.LAST_CHANNEL_CLOSED);
+            reportDelivery = received - timing(h, Marker.REPORT_SENT);
+        }
+    }
+
+    static int timing(HashMap h, String key) {
+        Integer value = (Integer) h.get(key);
+        return (value == null) ? 0 : value;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot " + snapshotId + ": " + total + " ms, slowest player " + criticalPlayer
+                + " (marker " + markerPropagation + ", channels " + channelRecording
+                + " [last from " + criticalChannel + "], report " + reportPreparation
+                + ", delivery " + reportDelivery + ")";
+    }
+
+    public String toJSON() {
+        return "{\"snapshot\": " + snapshotId + ", \"total\": " + total
+                + ", \"criticalPlayer\": " + criticalPlayer + ", \"criticalChannel\": " + criticalChannel
+                + ", \"markerPropagation\": " + markerPropagation + ", \"channelRecording\": " + channelRecording
+                + ", \"reportPreparation\": " + reportPreparation + ", \"reportDelivery\": " + reportDelivery + "}";
+    }
+}
@@ -0,0 +1,359 @@
+package pit;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Checks recorded snapshots offline.  Reads the files written by SnapshotLog
+ * and, using fork/join across files and across batches of snapshots within
+ * a file, checks every snapshot for:
+ *  - players: each Player reported exactly once;
+ *  - conservation: each commodity adds up to what was dealt;
+ *  - channels (when the log has channel counts): for every pair of Players
+ *    p and q, the messages p sent to q before its cut equal those q received
+ *    from p before its cut plus those q recorded on that channel.
+ * In a partial snapshot only the Players that reported are expected, the
+ * commodities can't be expected to add up, and only the channels between
+ * Players that reported are checked.
+ *
+ *   java -cp Spring2018Project6-war/build/web/WEB-INF/classes pit.SnapshotVerifier log1 [log2 ...]
+ *
+ * Exits with status 1 if any snapshot failed a check.
+ */
+public class SnapshotVerifier {
+
+    // Snapshots handed to one task as they are read, and the most one task checks without splitting
+    static final int BATCH = 1024;
+    static final int LEAF = 256;
+    // Batches of one file forked and not yet joined; reading waits for the oldest beyond this
+    static final int MAX_FORKED = 8;
+    // Failures described in detail; the rest are only counted
+    static final int MAX_ERRORS = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("usage: SnapshotVerifier log [log ...]");
+            System.exit(2);
+        }
+        long start = System.currentTimeMillis();
+        Report report = new ForkJoinPool().invoke(new FilesTask(args, 0, args.length));
+        System.out.println("SnapshotVerifier checked " + report.snapshots + " snapshots (" + report.partial + " partial) in "
+                + (System.currentTimeMillis() - start) + "ms: " + report.badPlayers + " with missing or extra players, "
+                + report.badConservation + " not conserving commodities, " + report.badChannels + " with inconsistent channels");
+        for (String error : report.errors) {
+            System.out.println("  " + error);
+        }
+        System.exit(report.failed() ? 1 : 0);
+    }
+
+    // The Players and commodities of one deal, shared by the snapshots that follow it
+    static class Deal {
+        final int players;
+        final HashMap<String, Integer> dealt = new HashMap<String, Integer>();
+        final String[] sentKeys;
+        final String[] receivedKeys;
+        final String[] recordedKeys;
+        // One copy of each key, shared by all the states of this deal
+        private final HashMap<String, String> keys = new HashMap<String, String>();
+
+        Deal(int players) {
+            this.players = players;
+            sentKeys = new String[players];
+            receivedKeys = new String[players];
+            recordedKeys = new String[players];
+            for (int player = 0; player < players; player++) {
+                sentKeys[player] = Marker.SENT + player;
+                receivedKeys[player] = Marker.RECEIVED + player;
+                recordedKeys[player] = Marker.RECORDED + player;
+            }
+        }
+
+        String key(String field) {
+            String key = field.substring(0, field.indexOf('='));
+            String shared = keys.get(key);
+            if (shared == null) {
+                keys.put(key, key);
+                shared = key;
+            }
+            return shared;
+        }
+    }
+
+    static class Snapshot {
+        final String file;
+        final Deal deal;
+        final int id;
+        final ArrayList<HashMap<String, Integer>> states = new ArrayList<HashMap<String, Integer>>();
+        // The Players that did not report, if this is a partial snapshot
+        boolean[] missing;
+
+        Snapshot(String file, Deal deal, int id) {
+            this.file = file;
+            this.deal = deal;
+            this.id = id;
+        }
+    }
+
+    static class Report {
+        long snapshots;
+        long partial;
+        long badPlayers;
+        long badConservation;
+        long badChannels;
+        final ArrayList<String> errors = new ArrayList<String>();
+
+        void error(Snapshot s, String what) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(s.file + " snapshot " + s.id + ": " + what);
+            }
+        }
+
+        Report add(Report other) {
+            snapshots += other.snapshots;
+            partial += other.partial;
+            badPlayers += other.badPlayers;
+            badConservation += other.badConservation;
+            badChannels += other.badChannels;
+            for (String error : other.errors) {
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(error);
+                }
+            }
+            return this;
+        }
+
+        boolean failed() {
+            return badPlayers + badConservation + badChannels > 0;
+        }
+    }
+
+    // Verify files[from, to), one file per task
+    static class FilesTask extends RecursiveTask<Report> {
+        private final String[] files;
+        private final int from;
+        private final int to;
+
+        FilesTask(String[] files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                FilesTask left = new FilesTask(files, from, middle);
+                left.fork();
+                Report right = new FilesTask(files, middle, to).compute();
+                return right.add(left.join());
+            }
+            try {
+                return verifyFile(files[from]);
+            } catch (IOException e) {
+                Report report = new Report();
+                report.errors.add(files[from] + ": " + e);
+                report.badPlayers++;
+                return report;
+            }
+        }
+
+        /*
+         * Read one file, forking a CheckTask for every BATCH snapshots.  At
+         * most MAX_FORKED batches are held at once, so a file of any size is
+         * checked in bounded memory.
+         */
+        private Report verifyFile(String file) throws IOException {
+            Report report = new Report();
+            ArrayDeque<CheckTask> forked = new ArrayDeque<CheckTask>();
+            ArrayList<Snapshot> batch = new ArrayList<Snapshot>();
+            Deal deal = null;
+            Snapshot snapshot = null;
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields[0].equals("deal")) {
+                    deal = new Deal(Integer.parseInt(value(fields[1])));
+                    for (int i = 2; i < fields.length; i++) {
+                        deal.dealt.put(key(fields[i]), Integer.parseInt(value(fields[i])));
+                    }
+                    snapshot = null;
+                } else if (fields[0].equals("partial") && deal != null) {
+                    int id = Integer.parseInt(value(fields[1]));
+                    boolean[] missing = new boolean[deal.players];
+                    for (String player : value(fields[2]).split(",")) {
+                        int p = Integer.parseInt(player);
+                        if (p >= 0 && p < deal.players) {
+                            missing[p] = true;
+                        }
+                    }
+                    snapshot = new Snapshot(file, deal, id);
+                    snapshot.missing = missing;
+                    batch = add(snapshot, batch, forked, report);
+                } else if (fields[0].equals("state") && deal != null) {
+                    HashMap<String, Integer> state = new HashMap<String, Integer>();
+                    for (int i = 1; i < fields.length; i++) {
+                        state.put(deal.key(fields[i]), Integer.parseInt(value(fields[i])));
+                    }
+                    Integer id = state.get(Marker.SNAPSHOT);
+                    if (snapshot == null || id == null || id != snapshot.id) {
+                        snapshot = new Snapshot(file, deal, (id == null) ? -1 : id);
+                        batch = add(snapshot, batch, forked, report);
+                    }
+                    snapshot.states.add(state);
+                }
+            }
+            in.close();
+            report.add(new CheckTask(batch).compute());
+            for (CheckTask task : forked) {
+                report.add(task.join());
+            }
+            return report;
+        }
+
+        // Add a new snapshot to the batch, first forking the batch if it is full
+        private static ArrayList<Snapshot> add(Snapshot snapshot, ArrayList<Snapshot> batch,
+                ArrayDeque<CheckTask> forked, Report report) {
+            // A new snapshot begins, so every one in the batch is complete
+            if (batch.size() == BATCH) {
+                if (forked.size() == MAX_FORKED) {
+                    report.add(forked.poll().join());
+                }
+                forked.add(fork(batch));
+                batch = new ArrayList<Snapshot>();
+            }
+            batch.add(snapshot);
+            return batch;
+        }
+
+        private static CheckTask fork(List<Snapshot> batch) {
+            CheckTask task = new CheckTask(batch);
+            task.fork();
+            return task;
+        }
+
+        private static String key(String field) {
+            return field.substring(0, field.indexOf('='));
+        }
+
+        private static String value(String field) {
+            return field.substring(field.indexOf('=') + 1);
+        }
+    }
+
+    static class CheckTask extends RecursiveTask<Report> {
+        private List<Snapshot> snapshots;
+
+        CheckTask(List<Snapshot> snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        @Override
+        protected Report compute() {
+            Report report;
+            if (snapshots.size() > LEAF) {
+                int middle = snapshots.size() / 2;
+                CheckTask left = new CheckTask(snapshots.subList(0, middle));
+                left.fork();
+                report = new CheckTask(snapshots.subList(middle, snapshots.size())).compute().add(left.join());
+            } else {
+                report = new Report();
+                for (Snapshot snapshot : snapshots) {
+                    check(snapshot, report);
+                }
+            }
+            snapshots = null; // let the batch be collected before the file is done
+            return report;
+        }
+    }
+
+    static void check(Snapshot s, Report report) {
+        report.snapshots++;
+        Deal deal = s.deal;
+        boolean partial = (s.missing != null);
+        if (partial) {
+            report.partial++;
+        }
+
+        // Every Player exactly once
+        HashMap[] byPlayer = new HashMap[deal.players];
+        boolean playersOK = true;
+        for (HashMap<String, Integer> state : s.states) {
+            Integer player = state.get("Player");
+            if (player == null || player < 0 || player >= deal.players) {
+                report.error(s, "report from unknown player " + player);
+                playersOK = false;
+            } else if (byPlayer[player] != null) {
+                report.error(s, "player " + player + " reported twice");
+                playersOK = false;
+            } else if (partial && s.missing[player]) {
+                report.error(s, "player " + player + " reported but is listed as missing");
+                playersOK = false;
+            } else {
+                byPlayer[player] = state;
+            }
+        }
+        for (int player = 0; player < deal.players; player++) {
+            if (byPlayer[player] == null && !(partial && s.missing[player])) {
+                report.error(s, "player " + player + " is missing");
+                playersOK = false;
+            }
+        }
+        if (!playersOK) {
+            report.badPlayers++;
+            return;
+        }
+
+        // Every commodity adds up to what was dealt, unless some Players' cards are missing
+        for (String commodity : deal.dealt.keySet()) {
+            long total = 0;
+            for (HashMap<String, Integer> state : s.states) {
+                Integer count = state.get(commodity);
+                total += (count == null) ? 0 : count;
+            }
+            if (!partial && total != deal.dealt.get(commodity)) {
+                report.error(s, commodity + " adds up to " + total + ", " + deal.dealt.get(commodity) + " were dealt");
+                report.badConservation++;
+                break;
+            }
+        }
+
+        // Every channel p -> q was cut consistently, if the counts were recorded
+        if (s.states.isEmpty() || !hasChannelCounts(deal, s.states.get(0))) {
+            return;
+        }
+        for (int p = 0; p < deal.players; p++) {
+            for (int q = 0; q < deal.players; q++) {
+                if (p == q || byPlayer[p] == null || byPlayer[q] == null) {
+                    continue;
+                }
+                Integer sent = (Integer) byPlayer[p].get(deal.sentKeys[q]);
+                Integer received = (Integer) byPlayer[q].get(deal.receivedKeys[p]);
+                Integer recorded = (Integer) byPlayer[q].get(deal.recordedKeys[p]);
+                if (sent == null || received == null || recorded == null
+                        || sent.intValue() != received + recorded) {
+                    report.error(s, "channel " + p + "->" + q + ": sent " + sent + ", received " + received
+                            + " + recorded " + recorded);
+                    report.badChannels++;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Whether the Player that reported state counted its channels (NewHand channelCounts)
+    private static boolean hasChannelCounts(Deal deal, HashMap<String, Integer> state) {
+        Integer player = state.get("Player");
+        // Any other Player will do; a Player has no channel to itself
+        int other = (player != null && player == 0) ? 1 : 0;
+        return other < deal.players && state.containsKey(deal.sentKeys[other]);
+    }
+}
@@ -4,8 +4,16 @@
 <%@page import="java.util.HashMap"%>
 <% LinkedList commodity = (LinkedList) request.getAttribute("commodity"); %>
 <% LinkedList state = (LinkedList) request.getAttribute("state"); %>
+<% Object timing = request.getAttribute("timing"); %>
+<% Object missing = request.getAttribute("missing"); %>
 
 <table id="rtab" border="1" cellpadding="3">
+    <% if (timing != null || missing != null) { %>
+    <caption class="timing<%= (missing != null) ? " partial" : "" %>">
+        <% if (timing != null) { %><%= timing %><% } %>
+        <% if (missing != null) { %>(partial snapshot: players <%= missing %> did not report)<% } %>
+    </caption>
+    <% } %>
     <tr><th align="center">Player</th>
     <% Iterator<String> ic = commodity.iterator(); while(ic.hasNext()){ %>
         <th align="center">Quantity: <%= ic.next() %></th>
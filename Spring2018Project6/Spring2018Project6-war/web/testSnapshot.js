@@ -5,6 +5,9 @@ var tbl;
 var commodities=[];
 var snapshotTimer; // Hold reference to the interval timer to enable cancelling
 var halting = false;
+var feed; // WebSocket pushing snapshot results, when the browser supports it
+var sumHistory = []; // Sums of the most recent snapshots, for the chart
+var maxHistory = 100;
 
 
 $(function() { // when document is ready
@@ -42,11 +45,16 @@ function pitInitReply(data) {
     $("#initArea").html(data.message);
     commodities = data.commodities;
     console.log("commodities: " + commodities);
-    snapshotTimer = setTimeout(takeSnapshot, snapshotInterval);
+    if (window.WebSocket) {
+        openFeed();
+    } else {
+        snapshotTimer = setTimeout(takeSnapshot, snapshotInterval);
+    }
 }
 
 function pitHalt() {
     clearTimeout(snapshotTimer);
+    closeFeed();
     halting = true;
     try {
         $.ajax({
@@ -103,10 +111,125 @@ function pitSnapshotReply(data) {
     });
     headers += '</tr>';
 
+    var partial = $(data).find("caption.partial").length > 0 ? " (partial)" : "";
     data = $(data).append(headers);
-    $("#initArea").append("<h2>Snapshot #" + ++numSnapshot + "</h2>");
+    $("#initArea").append("<h2>Snapshot #" + ++numSnapshot + partial + "</h2>");
     $("#initArea").append(data);
     $("#initArea").append("<br>");
     if (numSnapshot < maxSnapshots)
         setTimeout(takeSnapshot, snapshotInterval);
 }
+
+/*
+ * Snapshots pushed over the PITsnapshotFeed WebSocket.  Each message only
+ * carries the Players whose counts changed, so one table is kept up to date
+ * in place, and the commodity sums are drawn as a rolling chart.
+ */
+function openFeed() {
+    closeFeed();
+    var path = location.pathname.substring(0, location.pathname.lastIndexOf("/") + 1);
+    var scheme = (location.protocol == "https:") ? "wss://" : "ws://";
+    numSnapshot = 0;
+    sumHistory = [];
+    $("#snapshotArea").empty();
+    feed = new WebSocket(scheme + location.host + path + "PITsnapshotFeed");
+    feed.onopen = function() {
+        feed.send("start " + snapshotInterval);
+    };
+    feed.onmessage = function(event) {
+        feedReply(JSON.parse(event.data));
+    };
+    feed.onerror = function() {
+        console.log("PITsnapshotFeed failed, polling instead");
+        feed = null;
+        if (!halting)
+            snapshotTimer = setTimeout(takeSnapshot, snapshotInterval);
+    };
+}
+
+function closeFeed() {
+    if (feed) {
+        feed.onerror = null;
+        if (feed.readyState == WebSocket.OPEN)
+            feed.send("stop");
+        feed.close();
+        feed = null;
+    }
+}
+
+function feedReply(data) {
+    if (halting) return;
+    if (data.commodities) {
+        commodities = data.commodities;
+        buildLiveTable();
+    }
+    if (data.failed) {
+        $("#liveStatus").text("Snapshot #" + data.snapshot + " Failed");
+        return;
+    }
+    if (!data.rows) return;
+    numSnapshot++;
+    for (var player in data.rows) {
+        var row = $("#player" + player);
+        if (row.length == 0) {
+            row = $("<tr align=center id='player" + player + "'><td>" + player + "</td></tr>");
+            commodities.forEach(function() { row.append("<td>"); });
+            $("#sumRow").before(row);
+        }
+        row.children("td").each(function(i) {
+            if (i > 0) $(this).text(data.rows[player][i - 1]);
+        });
+    }
+    $("#sumRow").children("td").each(function(i) {
+        if (i > 0) $(this).text(data.sums[i - 1]);
+    });
+    // Grey out the rows of Players that missed a partial snapshot
+    $("#liveTable tr[id^=player]").css("color", "");
+    (data.missing || []).forEach(function(player) {
+        $("#player" + player).css("color", "gray");
+    });
+    $("#liveStatus").text("Snapshot #" + data.snapshot
+            + ((data.missing) ? " (partial: players " + data.missing.join(",") + " missing)" : "")
+            + ((data.timing) ? " (" + data.timing.total + " ms, slowest player " + data.timing.criticalPlayer + ")" : ""));
+    if (data.sums && data.snapshot > 0 && !data.missing) {
+        sumHistory.push(data.sums);
+        if (sumHistory.length > maxHistory) sumHistory.shift();
+        drawSums();
+    }
+}
+
+function buildLiveTable() {
+    var header = "<tr><th align=center>Player</th>";
+    var sums = "<tr align=center id='sumRow'><td>Sum</td>";
+    commodities.forEach(function(commodity) {
+        header += "<th align=center>Quantity: " + commodity + "</th>";
+        sums += "<td></td>";
+    });
+    $("#snapshotArea").empty()
+            .append("<h2 id='liveStatus'></h2>")
+            .append($("<table id='liveTable' border=1 cellpadding=3>").append(header + "</tr>").append(sums + "</tr>"))
+            .append("<canvas id='sumChart' width=600 height=150></canvas>");
+}
+
+// Plot each commodity's sum over the recent snapshots
+function drawSums() {
+    var canvas = document.getElementById("sumChart");
+    if (!canvas || !canvas.getContext) return;
+    var ctx = canvas.getContext("2d");
+    var colors = ["#c00", "#060", "#00c", "#960", "#909", "#099"];
+    var top = 1;
+    sumHistory.forEach(function(sums) {
+        sums.forEach(function(sum) { top = Math.max(top, sum); });
+    });
+    ctx.clearRect(0, 0, canvas.width, canvas.height);
+    for (var c = 0; c < commodities.length; c++) {
+        ctx.strokeStyle = colors[c % colors.length];
+        ctx.beginPath();
+        for (var i = 0; i < sumHistory.length; i++) {
+            var x = i * canvas.width / maxHistory;
+            var y = canvas.height - 5 - (sumHistory[i][c] / top) * (canvas.height - 10);
+            if (i == 0) ctx.moveTo(x, y); else ctx.lineTo(x, y);
+        }
+        ctx.stroke();
+    }
+}